@@ -4,6 +4,7 @@ import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothClass;
 import android.bluetooth.BluetoothDevice;
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -12,7 +13,10 @@ import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.Settings;
+import android.util.Base64;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -27,6 +31,7 @@ import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeArray;
@@ -36,13 +41,26 @@ import com.facebook.react.modules.core.DeviceEventManagerModule;
 import com.facebook.react.modules.core.PermissionAwareActivity;
 import com.facebook.react.modules.core.PermissionListener;
 
+import org.json.JSONObject;
+
+import java.io.File;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
 
 @ReactModule(name = BluetoothPrinterModule.NAME)
 public class BluetoothPrinterModule extends ReactContextBaseJavaModule implements PermissionListener, ActivityEventListener, BluetoothServiceStateObserver {
@@ -53,11 +71,16 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
 
   public static final String EVENT_DEVICE_ALREADY_PAIRED = "EVENT_DEVICE_ALREADY_PAIRED";
   public static final String EVENT_DEVICE_FOUND = "EVENT_DEVICE_FOUND";
+  public static final String EVENT_DEVICES_FOUND = "EVENT_DEVICES_FOUND";
   public static final String EVENT_DEVICE_DISCOVER_DONE = "EVENT_DEVICE_DISCOVER_DONE";
   public static final String EVENT_CONNECTION_LOST = "EVENT_CONNECTION_LOST";
   public static final String EVENT_UNABLE_CONNECT = "EVENT_UNABLE_CONNECT";
   public static final String EVENT_CONNECTED = "EVENT_CONNECTED";
   public static final String EVENT_BLUETOOTH_NOT_SUPPORT = "EVENT_BLUETOOTH_NOT_SUPPORT";
+  public static final String EVENT_JOB_COMPLETED = "EVENT_JOB_COMPLETED";
+  public static final String EVENT_JOB_FAILED = "EVENT_JOB_FAILED";
+  public static final String EVENT_RECONNECTING = "EVENT_RECONNECTING";
+  public static final String EVENT_JOB_PROGRESS = "EVENT_JOB_PROGRESS";
 
   private static final int REQUEST_CONNECT_DEVICE = 1;
   private static final int REQUEST_ENABLE_BT = 2;
@@ -71,18 +94,54 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
   private static final String PROMISE_PERMISSION = "PERMISSION";
   private static final String PROMISE_SETTINGS = "SETTINGS";
 
+  // promises of print jobs waiting to be written, by job id
+  private static final Map<Integer, Promise> jobPromiseMap = new ConcurrentHashMap<Integer, Promise>();
+  // run when the job is written, before its promise is resolved
+  private static final Map<Integer, Runnable> jobCompletedActions = new ConcurrentHashMap<Integer, Runnable>();
+  // run when the job failed and won't be written later from the spooler
+  private static final Map<Integer, Runnable> jobFailedActions = new ConcurrentHashMap<Integer, Runnable>();
+  // end offset of each job of a batch, by job id of the batch
+  private static final Map<Integer, int[]> batchOffsets = new ConcurrentHashMap<Integer, int[]>();
+
   private String mConnectedDeviceName = null;
   private String mConnectedDeviceAddress = null;
   private BluetoothAdapter mBluetoothAdapter = null;
   private BluetoothService mService = null;
+  private final StoredGraphicsCache mGraphicsCache;
+  private final Map<String, ReceiptTemplate> mTemplates = new ConcurrentHashMap<String, ReceiptTemplate>();
+  private final Map<String, PrinterProfile> mProfiles = new ConcurrentHashMap<String, PrinterProfile>();
 
   private HashMap<String, BluetoothDevice> pairedDevices = new HashMap<String, BluetoothDevice>();
-  private HashMap<String, BluetoothDevice> foundedDevices = new HashMap<String, BluetoothDevice>();
+  // devices found by the current scan, in the order they were found
+  private final Map<String, FoundDevice> foundedDevices = new LinkedHashMap<String, FoundDevice>();
+  // found devices not sent yet, when they are sent in batches
+  private final List<FoundDevice> pendingDevices = new ArrayList<FoundDevice>();
+  private final Handler discoveryHandler = new Handler(Looper.getMainLooper());
+  private DiscoveryOptions discoveryOptions = DiscoveryOptions.DEFAULT;
+  @Nullable
+  private FoundDevice discoveryTarget = null;
+
+  /**
+   * A device found by a scan, with the signal and class from its broadcast
+   */
+  private static class FoundDevice {
+    final BluetoothDevice device;
+    int rssi;
+    @Nullable
+    final BluetoothClass bluetoothClass;
+
+    FoundDevice(BluetoothDevice device, int rssi, @Nullable BluetoothClass bluetoothClass) {
+      this.device = device;
+      this.rssi = rssi;
+      this.bluetoothClass = bluetoothClass;
+    }
+  }
 
   public BluetoothPrinterModule(ReactApplicationContext reactContext) {
     super(reactContext);
     this.reactContext = reactContext;
     this.mService = new BluetoothService(reactContext);
+    this.mGraphicsCache = new StoredGraphicsCache(reactContext);
 
     this.reactContext.addActivityEventListener(this);
     this.mService.addStateObserver(this);
@@ -99,10 +158,15 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
     constants.put(EVENT_DEVICE_ALREADY_PAIRED, EVENT_DEVICE_ALREADY_PAIRED);
     constants.put(EVENT_DEVICE_DISCOVER_DONE, EVENT_DEVICE_DISCOVER_DONE);
     constants.put(EVENT_DEVICE_FOUND, EVENT_DEVICE_FOUND);
+    constants.put(EVENT_DEVICES_FOUND, EVENT_DEVICES_FOUND);
     constants.put(EVENT_CONNECTION_LOST, EVENT_CONNECTION_LOST);
     constants.put(EVENT_UNABLE_CONNECT, EVENT_UNABLE_CONNECT);
     constants.put(EVENT_CONNECTED, EVENT_CONNECTED);
     constants.put(EVENT_BLUETOOTH_NOT_SUPPORT, EVENT_BLUETOOTH_NOT_SUPPORT);
+    constants.put(EVENT_JOB_COMPLETED, EVENT_JOB_COMPLETED);
+    constants.put(EVENT_JOB_FAILED, EVENT_JOB_FAILED);
+    constants.put(EVENT_RECONNECTING, EVENT_RECONNECTING);
+    constants.put(EVENT_JOB_PROGRESS, EVENT_JOB_PROGRESS);
 
     constants.put(BluetoothService.DEVICE_NAME, BluetoothService.DEVICE_NAME);
     constants.put(BluetoothService.DEVICE_ADDRESS, BluetoothService.DEVICE_ADDRESS);
@@ -129,6 +193,27 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
     return mBluetoothAdapter;
   }
 
+  /**
+   * Whether the address, or the last connected one when null, is a host:port of a network printer
+   */
+  private boolean isNetworkAddress(@Nullable String address) {
+    if (address == null) {
+      address = mService.getLastConnectedDeviceAddress();
+    }
+    return address != null && !address.isEmpty() && !BluetoothAdapter.checkBluetoothAddress(address.toUpperCase(Locale.ROOT));
+  }
+
+  /**
+   * Profile set for the address, or the last connected one when null
+   */
+  private PrinterProfile getProfile(@Nullable String address) {
+    if (address == null) {
+      address = mService.getLastConnectedDeviceAddress();
+    }
+    PrinterProfile profile = address != null ? mProfiles.get(address) : null;
+    return profile != null ? profile : PrinterProfile.DEFAULT;
+  }
+
   private boolean getPermissionState() {
     // Android 12+
     if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.S) {
@@ -241,7 +326,7 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
     if (adapter == null) {
       promise.resolve(true);
     } else {
-      if (mService != null && mService.getState() != BluetoothService.STATE_NONE) {
+      if (mService != null) {
         mService.stop();
       }
       promise.resolve(!adapter.isEnabled() || adapter.disable());
@@ -255,34 +340,64 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
   }
 
   @ReactMethod
-  public void isDeviceConnected(final Promise promise) {
-    if (!getPermissionState()) {
+  public void isDeviceConnected(@Nullable String address, final Promise promise) {
+    if (!isNetworkAddress(address) && !getPermissionState()) {
       promise.reject(BluetoothService.PERMISSION_NOT_GRANTED, new Exception("Permission required to search for devices was not granted"));
       return;
     }
 
     if (mService != null) {
-      promise.resolve(mService.getState() == BluetoothService.STATE_CONNECTED);
+      promise.resolve(mService.getState(address) == BluetoothService.STATE_CONNECTED);
     } else {
       promise.reject(BluetoothService.BLUETOOTH_NOT_ENABLED, new Exception("Bluetooth not enabled on this device"));
     }
   }
 
 
+  /**
+   * Searches for devices. The found ones can be limited to printers and sent in batches,
+   * and the search stops as soon as the device with the target address or name is found.
+   */
   @ReactMethod
   @SuppressLint("MissingPermission")
-  public void scanDevices(final Promise promise) {
+  public void scanDevices(ReadableMap options, final Promise promise) {
     if (!getPermissionState()) {
       promise.reject(BluetoothService.PERMISSION_NOT_GRANTED, new Exception("Permission required to search for devices was not granted"));
       return;
     }
 
+    DiscoveryOptions discovery;
+    try {
+      discovery = new DiscoveryOptions(
+        options.hasKey("printersOnly") && options.getBoolean("printersOnly"),
+        options.hasKey("batchInterval") ? options.getInt("batchInterval") : 0,
+        options.hasKey("targetAddress") ? options.getString("targetAddress") : null,
+        options.hasKey("targetName") ? Pattern.compile(options.getString("targetName"), Pattern.CASE_INSENSITIVE) : null
+      );
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return;
+    }
+
     BluetoothAdapter adapter = this.getBluetoothAdapter();
     if (adapter == null) {
       promise.reject(EVENT_BLUETOOTH_NOT_SUPPORT, new Exception("Bluetooth not supported on this device"));
     } else {
       cancelScanDiscovery();
 
+      Promise previous = promiseMap.remove(PROMISE_SCAN);
+      if (previous != null) {
+        previous.reject("DISCOVER", "CANCELLED");
+      }
+
+      synchronized (foundedDevices) {
+        discoveryHandler.removeCallbacks(flushFoundDevices);
+        foundedDevices.clear();
+        pendingDevices.clear();
+        discoveryOptions = discovery;
+        discoveryTarget = null;
+      }
+
       sendReactNativeEventArray(EVENT_DEVICE_ALREADY_PAIRED, createMapDevices(getBondedDevices().values()));
 
       if (adapter.startDiscovery()) {
@@ -307,7 +422,7 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
     } else {
       if (adapter.isEnabled()) {
         BluetoothDevice device = adapter.getRemoteDevice(address);
-        promiseMap.put(PROMISE_CONNECT, promise);
+        promiseMap.put(PROMISE_CONNECT + address, promise);
         mService.connect(device);
       } else {
         promise.reject(BluetoothService.BLUETOOTH_NOT_ENABLED, new Exception("Bluetooth not enabled on this device"));
@@ -315,8 +430,25 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
     }
   }
 
+  /**
+   * Connects to a network printer through a raw TCP socket, usually on port 9100.
+   * The printer address is host:port and is used like a Bluetooth address by the other methods.
+   */
+  @ReactMethod
+  public void connectNetwork(String host, int port, final Promise promise) {
+    TcpTransport transport = new TcpTransport(host, port > 0 ? port : TcpTransport.DEFAULT_PORT);
+    promiseMap.put(PROMISE_CONNECT + transport.getAddress(), promise);
+    mService.connect(transport);
+  }
+
   @ReactMethod
   public void disconnect(String address, final Promise promise) {
+    if (isNetworkAddress(address)) {
+      mService.stop(address);
+      promise.resolve(address);
+      return;
+    }
+
     if (!getPermissionState()) {
       promise.reject(BluetoothService.PERMISSION_NOT_GRANTED, new Exception("Permission required to search for devices was not granted"));
       return;
@@ -328,7 +460,7 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
     } else {
       if (adapter.isEnabled()) {
         try {
-          mService.stop();
+          mService.stop(address);
         } catch (Exception e) {
           Log.e(TAG, e.getMessage());
         }
@@ -353,6 +485,7 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
       if (adapter.isEnabled()) {
         BluetoothDevice device = adapter.getRemoteDevice(address);
         this.unpairDevice(device);
+        mService.forgetConnectionStrategy(address);
         promise.resolve(address);
       } else {
         promise.reject(BluetoothService.BLUETOOTH_NOT_ENABLED, new Exception("Bluetooth not enabled on this device"));
@@ -361,39 +494,755 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
   }
 
   @ReactMethod
-  public void printRaw(ReadableArray message, final Promise promise) {
+  public void printRaw(ReadableArray message, @Nullable String address, ReadableMap options, final Promise promise) {
+    if (!checkPrintState(address, promise)) {
+      return;
+    }
+
+    int size = message.size();
+    byte[] decoded = new byte[size];
+
+    for (int i = 0; i < size; i++) {
+      decoded[i] = (byte) message.getInt(i);
+    }
+
+    submitJob(decoded, address, options, promise, true);
+  }
+
+  /**
+   * Same as printRaw, but receives the bytes encoded as a base64 string, which crosses
+   * the bridge as a single value and is decoded straight into the buffer to be written.
+   */
+  @ReactMethod
+  public void printBase64(String message, @Nullable String address, ReadableMap options, final Promise promise) {
+    if (!checkPrintState(address, promise)) {
+      return;
+    }
+
+    byte[] decoded;
+
+    try {
+      decoded = Base64.decode(message, Base64.DEFAULT);
+    } catch (IllegalArgumentException e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return;
+    }
+
+    submitJob(decoded, address, options, promise, true);
+  }
+
+  /**
+   * Prints an image given as base64 or uri. It is decoded, scaled to width dots, dithered
+   * and packed into GS v 0 raster bands in a background thread, so only the source
+   * crosses the bridge.
+   */
+  @ReactMethod
+  public void printImage(final String source, final int width, ReadableMap options, @Nullable final String address, final Promise promise) {
+    if (!checkPrintState(address, promise)) {
+      return;
+    }
+
+    final ImageOptions imageOptions;
+
+    try {
+      imageOptions = new ImageOptions(
+        options.hasKey("dithering") ? Dither.Algorithm.valueOf(options.getString("dithering").toUpperCase(Locale.ROOT)) : ImageOptions.DEFAULT.getDithering(),
+        options.hasKey("threshold") ? options.getInt("threshold") : ImageOptions.DEFAULT_THRESHOLD,
+        options.hasKey("bandHeight") ? options.getInt("bandHeight") : ImageOptions.DEFAULT_BAND_HEIGHT
+      );
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return;
+    }
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        byte[] data;
+
+        try {
+          RasterImage image = ImageRasterizer.rasterize(reactContext, source, width, imageOptions);
+          data = RasterEncoder.encode(image, imageOptions.getBandHeight());
+        } catch (Exception | OutOfMemoryError e) {
+          promise.reject(BluetoothService.INVALID_DATA, e);
+          return;
+        }
+
+        submitJob(data, address, promise, true);
+      }
+    }, "ImageEncoderThread").start();
+  }
+
+  /**
+   * Prints a receipt described as JSON (text, lines, columns, feed, cut, barcode, qr),
+   * encoded into ESC/POS in a background thread with a single call across the bridge
+   */
+  @ReactMethod
+  public void printReceipt(final String document, @Nullable final String address, final ReadableMap options, final Promise promise) {
+    if (!checkPrintState(address, promise)) {
+      return;
+    }
+
+    final PrinterProfile profile = getProfile(address);
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        byte[] data;
+
+        try {
+          data = ReceiptEncoder.encode(document, profile);
+        } catch (Exception e) {
+          promise.reject(BluetoothService.INVALID_DATA, e);
+          return;
+        }
+
+        submitJob(data, address, options, promise, true);
+      }
+    }, "ReceiptEncoderThread").start();
+  }
+
+  /**
+   * Prints several jobs, given as base64, as a single job: they are joined natively with
+   * the separator between them and the cut after each one, and written in as few writes
+   * and flushes as the write options allow. Resolves, also when the write fails, with the
+   * end offset of each job and how many of them were completely written.
+   */
+  @ReactMethod
+  public void printBatch(ReadableArray jobs, ReadableMap options, @Nullable String address, final Promise promise) {
+    if (!checkPrintState(address, promise)) {
+      return;
+    }
+
+    int count = jobs.size();
+    int[] offsets = new int[count];
+    List<byte[]> parts = new ArrayList<byte[]>(count * 3);
+
+    try {
+      byte[] separator = options.hasKey("separator") ? Base64.decode(options.getString("separator"), Base64.DEFAULT) : new byte[0];
+      String cut = options.hasKey("cut") ? options.getString("cut").toLowerCase(Locale.ROOT) : "none";
+      byte[] cutCommand = cut.equals("none") ? new byte[0] : ReceiptEncoder.cutCommand(cut.equals("partial"), options.hasKey("feed") ? options.getInt("feed") : 3);
+      int offset = 0;
+
+      for (int i = 0; i < count; i++) {
+        if (i > 0 && separator.length > 0) {
+          parts.add(separator);
+          offset += separator.length;
+        }
+
+        byte[] data = Base64.decode(jobs.getString(i), Base64.DEFAULT);
+        parts.add(data);
+        offset += data.length;
+
+        if (cutCommand.length > 0) {
+          parts.add(cutCommand);
+          offset += cutCommand.length;
+        }
+        offsets[i] = offset;
+      }
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return;
+    }
+
+    PrintJob job = createJob(parts.toArray(new byte[parts.size()][]), options, promise);
+    if (job == null) {
+      return;
+    }
+
+    batchOffsets.put(job.getId(), offsets);
+    if (!submitJob(job, address, promise, true)) {
+      batchOffsets.remove(job.getId());
+    }
+  }
+
+  /**
+   * Compiles a receipt document with {{name}} fields, encoding its static commands once
+   */
+  @ReactMethod
+  public void registerTemplate(String id, String document, final Promise promise) {
+    try {
+      mTemplates.put(id, ReceiptEncoder.compile(document));
+      promise.resolve(true);
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+    }
+  }
+
+  @ReactMethod
+  public void unregisterTemplate(String id, final Promise promise) {
+    promise.resolve(mTemplates.remove(id) != null);
+  }
+
+  /**
+   * Prints a registered template, encoding only the values of its fields. The static and
+   * dynamic parts are written in order without being joined.
+   */
+  @ReactMethod
+  public void printTemplate(String id, String values, @Nullable String address, final Promise promise) {
+    if (!checkPrintState(address, promise)) {
+      return;
+    }
+
+    ReceiptTemplate template = mTemplates.get(id);
+    if (template == null) {
+      promise.reject(BluetoothService.INVALID_DATA, new Exception("Template not registered: " + id));
+      return;
+    }
+
+    byte[][] parts;
+
+    try {
+      JSONObject json = new JSONObject(values);
+      Map<String, String> fields = new HashMap<String, String>();
+      Iterator<String> keys = json.keys();
+      while (keys.hasNext()) {
+        String key = keys.next();
+        fields.put(key, json.optString(key));
+      }
+
+      parts = template.render(fields, getProfile(address));
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return;
+    }
+
+    submitJob(mService.createJob(parts), address, promise, true);
+  }
+
+  /**
+   * Sets what the firmware of the printer supports. Barcodes and QR codes of receipts
+   * are drawn on the phone and sent as raster images when the printer lacks them.
+   */
+  @ReactMethod
+  public void setPrinterProfile(String address, ReadableMap options, final Promise promise) {
+    try {
+      mProfiles.put(address, new PrinterProfile(
+        !options.hasKey("nativeQr") || options.getBoolean("nativeQr"),
+        !options.hasKey("nativeBarcode") || options.getBoolean("nativeBarcode")
+      ));
+      promise.resolve(true);
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+    }
+  }
+
+  /**
+   * Prints an image kept in the printer memory (NV or download graphics). The first time
+   * the image is sent and stored under a key code, later calls giving the same dots,
+   * from any source, only send the short command printing the stored graphics.
+   */
+  @ReactMethod
+  public void printLogo(final String source, final int width, ReadableMap options, @Nullable String address, final Promise promise) {
+    if (!checkPrintState(address, promise)) {
+      return;
+    }
+
+    final String printer = address != null ? address : mService.getLastConnectedDeviceAddress();
+    final ImageOptions imageOptions;
+    final StoredGraphicsCache.Memory memory;
+
+    try {
+      imageOptions = new ImageOptions(
+        options.hasKey("dithering") ? Dither.Algorithm.valueOf(options.getString("dithering").toUpperCase(Locale.ROOT)) : ImageOptions.DEFAULT.getDithering(),
+        options.hasKey("threshold") ? options.getInt("threshold") : ImageOptions.DEFAULT_THRESHOLD,
+        ImageOptions.DEFAULT_BAND_HEIGHT
+      );
+      memory = options.hasKey("memory") ? StoredGraphicsCache.Memory.valueOf(options.getString("memory").toUpperCase(Locale.ROOT)) : StoredGraphicsCache.Memory.NV;
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return;
+    }
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        RasterImage image;
+        try {
+          image = ImageRasterizer.rasterize(reactContext, source, width, imageOptions);
+        } catch (Exception | OutOfMemoryError e) {
+          promise.reject(BluetoothService.INVALID_DATA, e);
+          return;
+        }
+
+        // keyed by the dots, so a changed file is sent again and the same image from another source is not
+        final String hash = StoredGraphicsCache.hash(image);
+        String stored = mGraphicsCache.get(memory, printer, hash);
+
+        if (stored != null) {
+          submitJob(RasterEncoder.printGraphics(memory, stored), printer, promise, true);
+          return;
+        }
+
+        final StoredGraphicsCache.Allocation allocation = mGraphicsCache.allocate(memory, printer, hash);
+        final String key = allocation.getKey();
+        List<byte[]> parts = new ArrayList<byte[]>();
+
+        try {
+          for (String evicted : allocation.getEvicted()) {
+            parts.add(RasterEncoder.deleteGraphics(memory, evicted));
+          }
+          parts.add(RasterEncoder.defineGraphics(memory, key, image));
+          parts.add(RasterEncoder.printGraphics(memory, key));
+        } catch (Exception | OutOfMemoryError e) {
+          mGraphicsCache.release(memory, printer, key);
+          promise.reject(BluetoothService.INVALID_DATA, e);
+          return;
+        }
+
+        // the image only counts as stored once the printer received it
+        PrintJob job = mService.createJob(parts.toArray(new byte[parts.size()][]));
+        jobCompletedActions.put(job.getId(), new Runnable() {
+          @Override
+          public void run() {
+            mGraphicsCache.put(memory, printer, hash, key);
+          }
+        });
+        jobFailedActions.put(job.getId(), new Runnable() {
+          @Override
+          public void run() {
+            mGraphicsCache.release(memory, printer, key);
+          }
+        });
+
+        if (!submitJob(job, printer, promise, true)) {
+          jobCompletedActions.remove(job.getId());
+          jobFailedActions.remove(job.getId());
+          mGraphicsCache.release(memory, printer, key);
+        }
+      }
+    }, "ImageEncoderThread").start();
+  }
+
+  /**
+   * Forgets the images stored in the printer, e.g. after its memory was erased
+   */
+  @ReactMethod
+  public void clearStoredLogos(String address, final Promise promise) {
+    mGraphicsCache.clear(address);
+    promise.resolve(true);
+  }
+
+  /**
+   * Queues the bytes to be printed and resolves right away with the job id.
+   * The result of the job is sent through EVENT_JOB_COMPLETED / EVENT_JOB_FAILED.
+   */
+  @ReactMethod
+  public void enqueueRaw(ReadableArray message, @Nullable String address, ReadableMap options, final Promise promise) {
+    if (!checkPrintState(address, promise)) {
+      return;
+    }
+
+    int size = message.size();
+    byte[] decoded = new byte[size];
+
+    for (int i = 0; i < size; i++) {
+      decoded[i] = (byte) message.getInt(i);
+    }
+
+    submitJob(decoded, address, options, promise, false);
+  }
+
+  /**
+   * Same as enqueueRaw, but receives the bytes encoded as a base64 string
+   */
+  @ReactMethod
+  public void enqueueBase64(String message, @Nullable String address, ReadableMap options, final Promise promise) {
+    if (!checkPrintState(address, promise)) {
+      return;
+    }
+
+    byte[] decoded;
+
+    try {
+      decoded = Base64.decode(message, Base64.DEFAULT);
+    } catch (IllegalArgumentException e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return;
+    }
+
+    submitJob(decoded, address, options, promise, false);
+  }
+
+  @ReactMethod
+  public void setQueueOptions(ReadableMap options, final Promise promise) {
+    int capacity = PrintQueue.DEFAULT_CAPACITY;
+    PrintQueue.Backpressure backpressure = PrintQueue.Backpressure.BLOCK;
+
+    try {
+      if (options.hasKey("capacity")) {
+        capacity = options.getInt("capacity");
+      }
+      if (options.hasKey("backpressure")) {
+        backpressure = PrintQueue.Backpressure.valueOf(options.getString("backpressure").toUpperCase(Locale.ROOT));
+      }
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return;
+    }
+
+    mService.setQueueOptions(capacity, backpressure);
+    promise.resolve(true);
+  }
+
+  @ReactMethod
+  public void setWriteOptions(ReadableMap options, final Promise promise) {
+    WriteOptions writeOptions;
+
+    try {
+      writeOptions = new WriteOptions(
+        options.hasKey("chunkSize") ? options.getInt("chunkSize") : 0,
+        options.hasKey("pacing") ? WriteOptions.Pacing.valueOf(options.getString("pacing").toUpperCase(Locale.ROOT)) : WriteOptions.Pacing.NONE,
+        options.hasKey("chunkDelay") ? options.getInt("chunkDelay") : 0,
+        options.hasKey("bytesPerSecond") ? options.getInt("bytesPerSecond") : 0,
+        options.hasKey("xoffTimeout") ? options.getInt("xoffTimeout") : WriteOptions.DEFAULT_XOFF_TIMEOUT
+      );
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return;
+    }
+
+    mService.setWriteOptions(writeOptions);
+    promise.resolve(true);
+  }
+
+  @ReactMethod
+  public void setWriteLogLevel(String level, int hexDumpBytes, final Promise promise) {
+    try {
+      mService.setWriteLogLevel(BluetoothService.WriteLogLevel.valueOf(level.toUpperCase(Locale.ROOT)), hexDumpBytes);
+      promise.resolve(true);
+    } catch (IllegalArgumentException e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+    }
+  }
+
+  /**
+   * Asks the printer for its real-time status (DLE EOT), in a background thread
+   * since the printer can take up to the timeout to reply to each request
+   */
+  @ReactMethod
+  public void queryStatus(@Nullable final String address, final int timeout, final Promise promise) {
+    if (!checkPrintState(address, promise)) {
+      return;
+    }
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          PrinterStatus status = mService.queryStatus(address, timeout > 0 ? timeout : BluetoothService.DEFAULT_STATUS_TIMEOUT);
+          promise.resolve(createMapPrinterStatus(status).toString());
+        } catch (TimeoutException e) {
+          promise.reject(BluetoothService.STATUS_TIMEOUT, e);
+        } catch (Exception e) {
+          promise.reject(BluetoothService.NOT_CONNECTED, e);
+        }
+      }
+    }, "StatusQueryThread").start();
+  }
+
+  /**
+   * Resolves with the bytes received from the device since the last call, encoded as base64
+   */
+  @ReactMethod
+  public void readInbound(@Nullable String address, final Promise promise) {
+    promise.resolve(Base64.encodeToString(mService.readInbound(address), Base64.NO_WRAP));
+  }
+
+  @ReactMethod
+  public void getQueueDepth(@Nullable String address, final Promise promise) {
+    promise.resolve(mService.getQueueDepth(address));
+  }
+
+  /**
+   * Cancels a job waiting in the queue or being written, which is stopped at the next
+   * chunk followed by ESC @. Resolves false when the job is not queued anymore.
+   */
+  @ReactMethod
+  public void cancelJob(int jobId, final Promise promise) {
+    promise.resolve(mService.cancelJob(jobId));
+  }
+
+  /**
+   * Sends EVENT_JOB_PROGRESS for the jobs being written at most every interval ms, 0 to stop
+   */
+  @ReactMethod
+  public void setProgressInterval(int interval, final Promise promise) {
+    mService.setProgressInterval(interval);
+    promise.resolve(true);
+  }
+
+  /**
+   * Enables or disables the keep-alive of the connections: idle connections are
+   * probed with a status request and lost ones are reconnected with exponential backoff
+   */
+  @ReactMethod
+  public void setKeepAlive(ReadableMap options, final Promise promise) {
+    KeepAliveOptions defaults = KeepAliveOptions.DISABLED;
+    KeepAliveOptions keepAlive;
+
+    try {
+      keepAlive = new KeepAliveOptions(
+        options.hasKey("enabled") && options.getBoolean("enabled"),
+        options.hasKey("probeInterval") ? options.getInt("probeInterval") : defaults.getProbeInterval(),
+        options.hasKey("probeTimeout") ? options.getInt("probeTimeout") : defaults.getProbeTimeout(),
+        options.hasKey("initialBackoff") ? options.getInt("initialBackoff") : defaults.getInitialBackoff(),
+        options.hasKey("maxBackoff") ? options.getInt("maxBackoff") : defaults.getMaxBackoff(),
+        options.hasKey("maxAttempts") ? options.getInt("maxAttempts") : defaults.getMaxAttempts()
+      );
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return;
+    }
+
+    mService.setKeepAlive(keepAlive);
+    promise.resolve(true);
+  }
+
+  /**
+   * Keeps the jobs in a journal on disk until they are written, replaying the unfinished
+   * ones when their printer connects again. Opening the journal reads it, so it is done
+   * in a background thread.
+   */
+  @ReactMethod
+  public void setSpooler(ReadableMap options, final Promise promise) {
+    final boolean enabled = options.hasKey("enabled") && options.getBoolean("enabled");
+    final int statusTimeout = options.hasKey("statusTimeout") ? options.getInt("statusTimeout") : BluetoothService.DEFAULT_STATUS_TIMEOUT;
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          if (enabled) {
+            mService.enableSpooler(new File(reactContext.getFilesDir(), "print-journal"), statusTimeout);
+          } else {
+            mService.disableSpooler();
+          }
+          promise.resolve(true);
+        } catch (Exception e) {
+          promise.reject(BluetoothService.UNABLE_PRINT, e);
+        }
+      }
+    }, "SpoolerThread").start();
+  }
+
+  /**
+   * Resolves with the jobs in the journal that were not written yet
+   */
+  @ReactMethod
+  public void getSpooledJobs(final Promise promise) {
+    WritableNativeArray jobs = new WritableNativeArray();
+
+    for (PrintJournal.Entry entry : mService.getSpooledJobs()) {
+      WritableNativeMap params = new WritableNativeMap();
+      params.putInt("jobId", entry.getJobId());
+      params.putString("address", entry.getAddress());
+      params.putInt("size", entry.getSize());
+      params.putDouble("createdAt", entry.getCreatedAt());
+      jobs.pushMap(params);
+    }
+
+    promise.resolve(jobs.toString());
+  }
+
+  /**
+   * Resolves with the connection strategy remembered for each device and its connect timings
+   */
+  @ReactMethod
+  public void getConnectionStrategies(final Promise promise) {
+    WritableNativeArray strategies = new WritableNativeArray();
+
+    for (Map.Entry<String, ConnectionStrategyCache.Entry> entry : mService.getConnectionStrategies().entrySet()) {
+      WritableNativeMap params = new WritableNativeMap();
+      params.putString("address", entry.getKey());
+      params.putInt("strategy", entry.getValue().getStrategy());
+      params.putInt("failures", entry.getValue().getFailures());
+      params.putDouble("lastConnectTime", entry.getValue().getLastConnectTime());
+      params.putDouble("averageCachedConnectTime", entry.getValue().getAverageCachedConnectTime());
+      params.putDouble("averageColdConnectTime", entry.getValue().getAverageColdConnectTime());
+      strategies.pushMap(params);
+    }
+
+    promise.resolve(strategies.toString());
+  }
+
+  /**
+   * Resolves with the connect phase histograms and the job write latency and throughput
+   */
+  @ReactMethod
+  public void getMetrics(final Promise promise) {
+    ServiceMetrics metrics = mService.getMetrics();
+
+    WritableNativeMap histograms = new WritableNativeMap();
+    for (Map.Entry<String, Histogram.Snapshot> entry : metrics.snapshot().entrySet()) {
+      histograms.putMap(entry.getKey(), createMapHistogram(entry.getValue()));
+    }
+
+    WritableNativeMap params = new WritableNativeMap();
+    params.putDouble("bytesWritten", metrics.getBytesWritten());
+    params.putDouble("jobsWritten", metrics.getJobsWritten());
+    params.putDouble("jobsFailed", metrics.getJobsFailed());
+    params.putDouble("averageThroughput", metrics.getAverageThroughput());
+    params.putMap("histograms", histograms);
+
+    promise.resolve(params.toString());
+  }
+
+  @ReactMethod
+  public void resetMetrics(final Promise promise) {
+    mService.resetMetrics();
+    promise.resolve(true);
+  }
+
+  private WritableNativeMap createMapHistogram(Histogram.Snapshot snapshot) {
+    WritableNativeArray buckets = new WritableNativeArray();
+    for (int i = 0; i < snapshot.buckets.length; i++) {
+      WritableNativeMap bucket = new WritableNativeMap();
+      // the last bucket holds the values above every bound
+      if (i < snapshot.bounds.length) {
+        bucket.putDouble("le", snapshot.bounds[i]);
+      } else {
+        bucket.putNull("le");
+      }
+      bucket.putDouble("count", snapshot.buckets[i]);
+      buckets.pushMap(bucket);
+    }
+
+    WritableNativeMap params = new WritableNativeMap();
+    params.putDouble("count", snapshot.count);
+    params.putDouble("sum", snapshot.sum);
+    params.putDouble("min", snapshot.min);
+    params.putDouble("max", snapshot.max);
+    params.putDouble("mean", snapshot.mean());
+    params.putArray("buckets", buckets);
+    return params;
+  }
+
+  /**
+   * Changes how many devices can stay connected at the same time
+   */
+  @ReactMethod
+  public void setMaxConnections(int maxConnections, final Promise promise) {
+    mService.setMaxConnections(maxConnections);
+    promise.resolve(true);
+  }
+
+  /**
+   * Resolves with the addresses of the devices connected or connecting
+   */
+  @ReactMethod
+  public void getConnectedDevices(final Promise promise) {
+    WritableNativeArray addresses = new WritableNativeArray();
+    for (String address : mService.getConnectionAddresses()) {
+      addresses.pushString(address);
+    }
+    promise.resolve(addresses.toString());
+  }
+
+  /**
+   * Checks if the device, or the last connected one when address is null,
+   * is connected and able to print, rejecting the promise otherwise
+   */
+  private boolean checkPrintState(@Nullable String address, final Promise promise) {
+    if (isNetworkAddress(address)) {
+      return checkConnectionState(address, promise);
+    }
+
     if (!getPermissionState()) {
       promise.reject(BluetoothService.PERMISSION_NOT_GRANTED, new Exception("Permission required to search for devices was not granted"));
-      return;
+      return false;
     }
 
     BluetoothAdapter adapter = this.getBluetoothAdapter();
     if (adapter == null) {
       promise.reject(EVENT_BLUETOOTH_NOT_SUPPORT, new Exception("Bluetooth not supported on this device"));
-    } else {
-      if (mService != null && adapter.isEnabled()) {
+      return false;
+    }
 
-        if (mService.getState() == BluetoothService.STATE_CONNECTED) {
-          byte[] decoded = new byte[message.size()];
+    if (mService == null || !adapter.isEnabled()) {
+      promise.reject(BluetoothService.BLUETOOTH_NOT_ENABLED, new Exception("Bluetooth not enabled on this device"));
+      return false;
+    }
 
-          for (int i = 0; i < message.size(); i++) {
-            decoded[i] = new Integer(message.getInt(i)).byteValue();
-          }
+    return checkConnectionState(address, promise);
+  }
 
-          try {
-            mService.write(decoded);
-            promise.resolve(true);
-          } catch (Exception e) {
-            promise.reject(BluetoothService.UNABLE_PRINT, e);
-          }
-        } else {
-          promise.reject(BluetoothService.NOT_CONNECTED, new Exception("Not connected to any device"));
-        }
+  private boolean checkConnectionState(@Nullable String address, final Promise promise) {
+    // while reconnecting the jobs wait in the queue
+    int state = mService.getState(address);
+    if (state != BluetoothService.STATE_CONNECTED && state != BluetoothService.STATE_RECONNECTING) {
+      promise.reject(BluetoothService.NOT_CONNECTED, new Exception("Not connected to the device"));
+      return false;
+    }
 
+    return true;
+  }
+
+  /**
+   * Queues the bytes on the service. When waitCompletion is set, the promise is only
+   * settled after the job is written, otherwise it resolves with the job id right away.
+   */
+  private void submitJob(byte[] data, @Nullable String address, final Promise promise, boolean waitCompletion) {
+    submitJob(mService.createJob(data), address, promise, waitCompletion);
+  }
+
+  /**
+   * Same, with the priority and source of the job from the options,
+   * e.g. {"priority": "high", "source": "counter"}
+   */
+  private void submitJob(byte[] data, @Nullable String address, ReadableMap options, final Promise promise, boolean waitCompletion) {
+    PrintJob job = createJob(new byte[][]{data}, options, promise);
+    if (job != null) {
+      submitJob(job, address, promise, waitCompletion);
+    }
+  }
+
+  /**
+   * @return null when the options are invalid and the promise was rejected
+   */
+  @Nullable
+  private PrintJob createJob(byte[][] parts, ReadableMap options, final Promise promise) {
+    PrintJob.Priority priority;
+
+    try {
+      priority = options.hasKey("priority") ? PrintJob.Priority.valueOf(options.getString("priority").toUpperCase(Locale.ROOT)) : PrintJob.Priority.NORMAL;
+    } catch (Exception e) {
+      promise.reject(BluetoothService.INVALID_DATA, e);
+      return null;
+    }
+
+    String source = options.hasKey("source") ? options.getString("source") : "";
+    return mService.createJob(parts, priority, source);
+  }
+
+  /**
+   * @return false when the job was not queued and the promise was rejected
+   */
+  private boolean submitJob(PrintJob job, @Nullable String address, final Promise promise, boolean waitCompletion) {
+    if (waitCompletion) {
+      jobPromiseMap.put(job.getId(), promise);
+    }
+
+    try {
+      mService.submit(address, job);
+    } catch (RejectedExecutionException e) {
+      jobPromiseMap.remove(job.getId());
+      if (mService.getState(address) != BluetoothService.STATE_NONE) {
+        promise.reject(BluetoothService.QUEUE_FULL, e);
       } else {
-        promise.reject(BluetoothService.BLUETOOTH_NOT_ENABLED, new Exception("Bluetooth not enabled on this device"));
+        promise.reject(BluetoothService.NOT_CONNECTED, e);
       }
+      return false;
+    } catch (Exception e) {
+      jobPromiseMap.remove(job.getId());
+      promise.reject(BluetoothService.UNABLE_PRINT, e);
+      return false;
     }
+
+    if (!waitCompletion) {
+      promise.resolve(job.getId());
+    }
+    return true;
   }
 
   @SuppressLint("MissingPermission")
@@ -501,20 +1350,33 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
         // Get the BluetoothDevice object from the Intent
         BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
         if (device.getBondState() != BluetoothDevice.BOND_BONDED) {
-          if (foundedDevices.get(device.getAddress()) == null) {
-            foundedDevices.put(device.getAddress(), device);
-            sendReactNativeEvent(EVENT_DEVICE_FOUND, createMapDevice(device));
-          }
+          int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, Short.MIN_VALUE);
+          BluetoothClass bluetoothClass = intent.getParcelableExtra(BluetoothDevice.EXTRA_CLASS);
+          onDeviceFound(device, rssi, bluetoothClass != null ? bluetoothClass : device.getBluetoothClass());
         }
       }
 
       if (BluetoothAdapter.ACTION_DISCOVERY_FINISHED.equals(action)) {
+        BluetoothAdapter adapter = getBluetoothAdapter();
+        if (adapter != null && adapter.isDiscovering()) {
+          // finish of a scan cancelled by a new one
+          return;
+        }
+
         Promise promise = promiseMap.remove(PROMISE_SCAN);
         if (promise != null) {
           WritableNativeMap params = new WritableNativeMap();
 
-          params.putArray("paired", (ReadableArray) createMapDevices(pairedDevices.values()));
-          params.putArray("found", (ReadableArray) createMapDevices(foundedDevices.values()));
+          synchronized (foundedDevices) {
+            discoveryHandler.removeCallbacks(flushFoundDevices);
+            flushFoundDevices.run();
+
+            params.putArray("paired", (ReadableArray) createMapDevices(pairedDevices.values()));
+            params.putArray("found", (ReadableArray) createMapFoundDevices(foundedDevices.values()));
+            if (discoveryTarget != null) {
+              params.putMap("target", createMapFoundDevice(discoveryTarget));
+            }
+          }
 
           promise.resolve(params.toString());
           sendReactNativeEvent(EVENT_DEVICE_DISCOVER_DONE, params);
@@ -523,21 +1385,170 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
     }
   };
 
+  /**
+   * Keep a device found by the scan and send it, at once or with the next batch.
+   * Each device is sent once per scan, later broadcasts only update its signal.
+   */
+  @SuppressLint("MissingPermission")
+  private void onDeviceFound(BluetoothDevice device, int rssi, @Nullable BluetoothClass bluetoothClass) {
+    String name = device.getName();
+    boolean target;
+
+    synchronized (foundedDevices) {
+      FoundDevice found = foundedDevices.get(device.getAddress());
+      if (found != null) {
+        found.rssi = rssi;
+        return;
+      }
+      if (discoveryOptions.isPrintersOnly() && !DiscoveryOptions.isPrinter(bluetoothClass)) {
+        return;
+      }
+
+      found = new FoundDevice(device, rssi, bluetoothClass);
+      foundedDevices.put(device.getAddress(), found);
+      target = discoveryTarget == null && discoveryOptions.isTarget(device.getAddress(), name);
+      if (target) {
+        discoveryTarget = found;
+      }
+
+      if (discoveryOptions.getBatchInterval() > 0) {
+        pendingDevices.add(found);
+        if (target) {
+          discoveryHandler.removeCallbacks(flushFoundDevices);
+          flushFoundDevices.run();
+        } else if (pendingDevices.size() == 1) {
+          discoveryHandler.postDelayed(flushFoundDevices, discoveryOptions.getBatchInterval());
+        }
+      } else {
+        sendReactNativeEvent(EVENT_DEVICE_FOUND, createMapFoundDevice(found));
+      }
+    }
+
+    if (target) {
+      // the rest of the scan would only delay the connection
+      cancelScanDiscovery();
+    }
+  }
+
+  // Sends the devices found since the last batch
+  private final Runnable flushFoundDevices = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (foundedDevices) {
+        if (pendingDevices.isEmpty()) {
+          return;
+        }
+        sendReactNativeEventArray(EVENT_DEVICES_FOUND, createMapFoundDevices(pendingDevices));
+        pendingDevices.clear();
+      }
+    }
+  };
+
   @Override
   public void onBluetoothServiceStateChanged(int state, Map<String, Object> bundle, Exception exception) {
     Log.i(TAG, "onBluetoothServiceStateChanged: " + state + " (" + mService.getStateName(state) + ")");
 
     switch (state) {
+      case BluetoothService.MESSAGE_JOB_COMPLETED: {
+        int jobId = (Integer) bundle.get(BluetoothService.JOB_ID);
+
+        jobFailedActions.remove(jobId);
+        Runnable action = jobCompletedActions.remove(jobId);
+        if (action != null) {
+          action.run();
+        }
+
+        int[] offsets = batchOffsets.remove(jobId);
+        Promise p = jobPromiseMap.remove(jobId);
+        if (p != null) {
+          if (offsets != null) {
+            p.resolve(createBatchResult(offsets, (Integer) bundle.get(BluetoothService.BYTES), false, null).toString());
+          } else {
+            p.resolve(true);
+          }
+        }
+
+        WritableNativeMap params = new WritableNativeMap();
+        params.putInt("jobId", jobId);
+        params.putString("address", (String) bundle.get(BluetoothService.DEVICE_ADDRESS));
+        params.putInt("queueDepth", (Integer) bundle.get(BluetoothService.QUEUE_DEPTH));
+
+        sendReactNativeEvent(EVENT_JOB_COMPLETED, params);
+        break;
+      }
+
+      case BluetoothService.MESSAGE_JOB_FAILED: {
+        int jobId = (Integer) bundle.get(BluetoothService.JOB_ID);
+
+        boolean spooled = (Boolean) bundle.get(BluetoothService.SPOOLED);
+
+        // a spooled job is written later, its completed actions still run then
+        if (!spooled) {
+          jobCompletedActions.remove(jobId);
+          Runnable action = jobFailedActions.remove(jobId);
+          if (action != null) {
+            action.run();
+          }
+        }
+
+        int[] offsets = batchOffsets.remove(jobId);
+        Promise p = jobPromiseMap.remove(jobId);
+        if (p != null) {
+          if (offsets != null) {
+            p.resolve(createBatchResult(offsets, (Integer) bundle.get(BluetoothService.BYTES), spooled, exception).toString());
+          } else {
+            String code = spooled ? BluetoothService.JOB_SPOOLED : BluetoothService.UNABLE_PRINT;
+            p.reject(exception instanceof CancellationException ? BluetoothService.JOB_CANCELLED : code, exception);
+          }
+        }
+
+        WritableNativeMap params = new WritableNativeMap();
+        params.putInt("jobId", jobId);
+        params.putString("address", (String) bundle.get(BluetoothService.DEVICE_ADDRESS));
+        params.putInt("queueDepth", (Integer) bundle.get(BluetoothService.QUEUE_DEPTH));
+        params.putBoolean("spooled", spooled);
+        if (exception != null) {
+          params.putString("message", exception.getMessage());
+        }
+
+        sendReactNativeEvent(EVENT_JOB_FAILED, params);
+        break;
+      }
+
+      case BluetoothService.MESSAGE_JOB_PROGRESS: {
+        WritableNativeMap params = new WritableNativeMap();
+        params.putInt("jobId", (Integer) bundle.get(BluetoothService.JOB_ID));
+        params.putString("address", (String) bundle.get(BluetoothService.DEVICE_ADDRESS));
+        params.putInt("bytesSent", (Integer) bundle.get(BluetoothService.BYTES));
+        params.putInt("totalBytes", (Integer) bundle.get(BluetoothService.TOTAL));
+        params.putDouble("eta", (Long) bundle.get(BluetoothService.ETA));
+
+        sendReactNativeEvent(EVENT_JOB_PROGRESS, params);
+        break;
+      }
+
+      case BluetoothService.STATE_RECONNECTING: {
+        WritableNativeMap params = new WritableNativeMap();
+        params.putString("address", (String) bundle.get(BluetoothService.DEVICE_ADDRESS));
+        params.putInt("attempt", (Integer) bundle.get(BluetoothService.ATTEMPT));
+
+        sendReactNativeEvent(EVENT_RECONNECTING, params);
+        break;
+      }
+
       case BluetoothService.STATE_CONNECTED: {
         mConnectedDeviceName = (String) bundle.get(BluetoothService.DEVICE_NAME);
         mConnectedDeviceAddress = (String) bundle.get(BluetoothService.DEVICE_ADDRESS);
 
+        // the printer may have been restarted, losing its download graphics
+        mGraphicsCache.clearDownload(mConnectedDeviceAddress);
+
         WritableNativeMap params = new WritableNativeMap();
 
         params.putString("name", mConnectedDeviceName);
         params.putString("address", mConnectedDeviceAddress);
 
-        Promise p = promiseMap.remove(PROMISE_CONNECT);
+        Promise p = promiseMap.remove(PROMISE_CONNECT + mConnectedDeviceAddress);
 
         if (p != null) {
           p.resolve(params.toString());
@@ -546,33 +1557,40 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
         Log.i(TAG, "Connection to the device was successful");
 
         sendReactNativeEvent(EVENT_CONNECTED, params);
+        break;
       }
 
       case BluetoothService.MESSAGE_CONNECTION_LOST: {
         Log.e(TAG, "Connection with device has been lost");
-        sendReactNativeEvent(EVENT_CONNECTION_LOST, null);
+
+        WritableNativeMap params = new WritableNativeMap();
+        params.putString("address", (String) bundle.get(BluetoothService.DEVICE_ADDRESS));
+
+        sendReactNativeEvent(EVENT_CONNECTION_LOST, params);
+        break;
       }
 
       case BluetoothService.MESSAGE_UNABLE_CONNECT: {
-        Log.e(TAG, "Unable to connect: " + mService.getStateName(mService.getState()));
+        String address = (String) bundle.get(BluetoothService.DEVICE_ADDRESS);
+        Log.e(TAG, "Unable to connect " + address + ": " + mService.getStateName(mService.getState(address)));
 
-        // if only current status is connecting (request connect by user)
-        if (mService.getState() == BluetoothService.STATE_CONNECTING) {
-          Promise p = promiseMap.remove(PROMISE_CONNECT);
+        Promise p = promiseMap.remove(PROMISE_CONNECT + address);
 
-          if (p != null) {
-            p.reject(BluetoothService.UNABLE_CONNECT, exception);
-          } else {
-            WritableNativeMap params = new WritableNativeMap();
-
-            if (exception != null) {
-              params.putString("message", exception.getMessage());
-              params.putString("stack_trace", Arrays.toString(exception.getStackTrace()));
-            }
+        if (p != null) {
+          p.reject(BluetoothService.UNABLE_CONNECT, exception);
+        } else if (mService.getState(address) == BluetoothService.STATE_CONNECTING) {
+          // if only current status is connecting (request connect by user)
+          WritableNativeMap params = new WritableNativeMap();
+          params.putString("address", address);
 
-            sendReactNativeEvent(EVENT_UNABLE_CONNECT, params);
+          if (exception != null) {
+            params.putString("message", exception.getMessage());
+            params.putString("stack_trace", Arrays.toString(exception.getStackTrace()));
           }
+
+          sendReactNativeEvent(EVENT_UNABLE_CONNECT, params);
         }
+        break;
       }
       default: {
       }
@@ -643,6 +1661,66 @@ public class BluetoothPrinterModule extends ReactContextBaseJavaModule implement
     return writableNativeArray;
   }
 
+  private WritableNativeMap createMapFoundDevice(FoundDevice found) {
+    WritableNativeMap writableNativeMap = createMapDevice(found.device);
+    if (found.rssi != Short.MIN_VALUE) {
+      writableNativeMap.putInt("rssi", found.rssi);
+    }
+    if (found.bluetoothClass != null) {
+      writableNativeMap.putInt("deviceClass", found.bluetoothClass.getDeviceClass());
+    }
+    return writableNativeMap;
+  }
+
+  private WritableNativeArray createMapFoundDevices(Collection<FoundDevice> devices) {
+    WritableNativeArray writableNativeArray = new WritableNativeArray();
+    for (FoundDevice d : devices) {
+      writableNativeArray.pushMap(createMapFoundDevice(d));
+    }
+    return writableNativeArray;
+  }
+
+
+  private WritableNativeMap createMapPrinterStatus(PrinterStatus status) {
+    WritableNativeMap writableNativeMap = new WritableNativeMap();
+    writableNativeMap.putBoolean("online", status.isOnline());
+    writableNativeMap.putBoolean("paperOut", status.isPaperOut());
+    writableNativeMap.putBoolean("paperNearEnd", status.isPaperNearEnd());
+    writableNativeMap.putBoolean("coverOpen", status.isCoverOpen());
+    writableNativeMap.putBoolean("drawerOpen", status.isDrawerOpen());
+    writableNativeMap.putBoolean("paperFeedPressed", status.isPaperFeedPressed());
+    writableNativeMap.putBoolean("error", status.isError());
+    writableNativeMap.putBoolean("cutterError", status.isCutterError());
+    writableNativeMap.putBoolean("unrecoverableError", status.isUnrecoverableError());
+    writableNativeMap.putBoolean("autoRecoverableError", status.isAutoRecoverableError());
+    return writableNativeMap;
+  }
+
+  /**
+   * Which jobs of a batch were written: a job is only counted once all its bytes were flushed
+   */
+  private WritableNativeMap createBatchResult(int[] offsets, int bytesWritten, boolean spooled, @Nullable Exception exception) {
+    WritableNativeArray offsetArray = new WritableNativeArray();
+    int written = 0;
+
+    for (int offset : offsets) {
+      offsetArray.pushInt(offset);
+      if (offset <= bytesWritten) {
+        written++;
+      }
+    }
+
+    WritableNativeMap writableNativeMap = new WritableNativeMap();
+    writableNativeMap.putInt("count", offsets.length);
+    writableNativeMap.putInt("written", written);
+    writableNativeMap.putInt("bytesWritten", bytesWritten);
+    writableNativeMap.putArray("offsets", offsetArray);
+    writableNativeMap.putBoolean("spooled", spooled);
+    if (exception != null) {
+      writableNativeMap.putString("error", exception.getMessage());
+    }
+    return writableNativeMap;
+  }
 
   @SuppressLint("MissingPermission")
   private WritableNativeMap createEnableBluetoothResponse(Boolean success, Boolean rejected) {
@@ -1,41 +1,48 @@
 package com.bluetoothprinter;
 
 
-import android.annotation.SuppressLint;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class does all the work for setting up and managing Bluetooth
- * connections with other devices.
+ * connections with other devices. The bytes go through a PrinterTransport,
+ * so the same connections can also run over TCP or in memory.
  */
 public class BluetoothService {
   // Debugging
   private static final String TAG = "RNBluetoothPrinter";
 
-  //UUID must be this
-  // Unique UUID for this application
-  private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-
   // Member fields
-  private BluetoothAdapter mAdapter;
+  @Nullable
+  private final BluetoothAdapter mAdapter;
 
-  private ConnectedThread mConnectedThread;
-  private int mState;
+  // Live connections by device address, from the least to the most recently used
+  private final LinkedHashMap<String, ConnectedThread> mConnections = new LinkedHashMap<String, ConnectedThread>(16, 0.75f, true);
+  private int mMaxConnections = DEFAULT_MAX_CONNECTIONS;
 
   // Constants that indicate the current connection state
   public static final int STATE_NONE = 0;       // we're doing nothing
+  public static final int STATE_RECONNECTING = 1; // connection lost, waiting to connect again
   public static final int STATE_CONNECTING = 2; // now initiating an outgoing connection
   public static final int STATE_CONNECTED = 3;  // now connected to a remote device
 
@@ -46,11 +53,32 @@ public class BluetoothService {
   public static final int MESSAGE_CONNECTION_LOST = 8;
   public static final int MESSAGE_UNABLE_CONNECT = 9;
   public static final int MESSAGE_UNABLE_PRINT = 10;
+  public static final int MESSAGE_JOB_COMPLETED = 11;
+  public static final int MESSAGE_JOB_FAILED = 12;
+  public static final int MESSAGE_JOB_PROGRESS = 13;
 
   // Key names received from the BluetoothService Handler
   public static final String DEVICE_NAME = "device_name";
   public static final String DEVICE_ADDRESS = "device_address";
   public static final String TOAST = "toast";
+  public static final String JOB_ID = "job_id";
+  public static final String QUEUE_DEPTH = "queue_depth";
+  public static final String BYTES = "bytes";
+  public static final String ATTEMPT = "attempt";
+  public static final String SPOOLED = "spooled";
+  public static final String TOTAL = "total";
+  public static final String ETA = "eta";
+
+  public static final int DEFAULT_HEX_DUMP_BYTES = 64;
+
+  // What is logged about the jobs written
+  public enum WriteLogLevel {
+    OFF,
+    // size and duration of the write
+    SUMMARY,
+    // summary plus a hex dump of the first bytes
+    HEX_DUMP
+  }
 
   public static final String BLUETOOTH_NOT_ENABLED = "BLUETOOTH_NOT_ENABLED";
 
@@ -62,10 +90,55 @@ public class BluetoothService {
 
   public static final String UNABLE_PRINT = "UNABLE_PRINT";
 
+  public static final String INVALID_DATA = "INVALID_DATA";
+
+  public static final String QUEUE_FULL = "QUEUE_FULL";
+
+  public static final String STATUS_TIMEOUT = "STATUS_TIMEOUT";
+
+  public static final String JOB_SPOOLED = "JOB_SPOOLED";
+
+  public static final String JOB_CANCELLED = "JOB_CANCELLED";
+
+  public static final int DEFAULT_STATUS_TIMEOUT = 1000;
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 3;
+
+  // parts smaller than this are copied together, so each one doesn't cost a write to the socket
+  private static final int GATHER_SIZE = 16 * 1024;
+
+  // time a reconnect waits for the writer of the lost connection to end
+  private static final int WRITER_STOP_TIMEOUT = 1000;
+
+  // ESC @, sent after a job cancelled while being written
+  private static final byte[] RESET = {0x1B, '@'};
+
   public static String ErrorMessage = "No_Error_Message";
 
-  private static List<BluetoothServiceStateObserver> observers = new ArrayList<BluetoothServiceStateObserver>();
-  private String mLastConnectedDeviceAddress = "";
+  private static List<BluetoothServiceStateObserver> observers = new CopyOnWriteArrayList<BluetoothServiceStateObserver>();
+  private volatile String mLastConnectedDeviceAddress = "";
+
+  private final AtomicInteger mNextJobId = new AtomicInteger(1);
+  private int mQueueCapacity = PrintQueue.DEFAULT_CAPACITY;
+  private PrintQueue.Backpressure mBackpressure = PrintQueue.Backpressure.BLOCK;
+  private WriteOptions mWriteOptions = WriteOptions.DEFAULT;
+  private volatile WriteLogLevel mWriteLogLevel = WriteLogLevel.SUMMARY;
+  private volatile int mHexDumpBytes = DEFAULT_HEX_DUMP_BYTES;
+
+  private volatile KeepAliveOptions mKeepAlive = KeepAliveOptions.DISABLED;
+  @Nullable
+  private final ConnectionStrategyCache mStrategyCache;
+  private final ServiceMetrics mMetrics = new ServiceMetrics();
+  // jobs kept on disk until written, null when the spooler is disabled
+  @Nullable
+  private volatile PrintJournal mJournal;
+  // timeout of the status request confirming each spooled job, 0 to not confirm
+  private volatile int mSpoolStatusTimeout = 0;
+  // minimum time between two progress events of a job, 0 to not send them
+  private volatile int mProgressInterval = 0;
+  // runs the idle probes and the reconnect attempts
+  private ScheduledExecutorService mScheduler;
+  private ScheduledFuture<?> mProbeTask;
 
   /**
    * Constructor. Prepares a new BTPrinter session.
@@ -73,8 +146,16 @@ public class BluetoothService {
    * @param context The UI Activity Context
    */
   public BluetoothService(Context context) {
-    mAdapter = BluetoothAdapter.getDefaultAdapter();
-    mState = STATE_NONE;
+    this(BluetoothAdapter.getDefaultAdapter(), new ConnectionStrategyCache(context));
+  }
+
+  /**
+   * Without an adapter and strategy cache only connect(PrinterTransport) can be used,
+   * e.g. to run the service on a plain JVM with a MemoryTransport.
+   */
+  BluetoothService(@Nullable BluetoothAdapter adapter, @Nullable ConnectionStrategyCache strategyCache) {
+    mAdapter = adapter;
+    mStrategyCache = strategyCache;
   }
 
   public void addStateObserver(BluetoothServiceStateObserver observer) {
@@ -86,14 +167,26 @@ public class BluetoothService {
   }
 
   /**
-   * Set the current state of the connection
+   * Set the current state of a connection
    *
-   * @param state An integer defining the current connection state
+   * @param connection The connection that changed
+   * @param state      An integer defining the current connection state
+   */
+  private void setState(ConnectedThread connection, int state, @Nullable Map<String, Object> bundle) {
+    Log.d(TAG, "setState() " + connection.address() + " " + getStateName(connection.connectionState()) + " -> " + getStateName(state));
+    connection.setConnectionState(state);
+    infoObservers(state, deviceBundle(connection, bundle), null);
+  }
+
+  /**
+   * Add the address of the connection device to the bundle sent to the observers
    */
-  private synchronized void setState(int state, Map<String, Object> bundle) {
-    Log.d(TAG, "setState() " + getStateName(mState) + " -> " + getStateName(state));
-    mState = state;
-    infoObservers(state, bundle, null);
+  private Map<String, Object> deviceBundle(ConnectedThread connection, @Nullable Map<String, Object> bundle) {
+    if (bundle == null) {
+      bundle = new HashMap<String, Object>();
+    }
+    bundle.put(DEVICE_ADDRESS, connection.address());
+    return bundle;
   }
 
   public String getStateName(int state) {
@@ -106,98 +199,699 @@ public class BluetoothService {
     if (STATE_CONNECTING == state) {
       return "STATE_CONNECTING";
     }
+    if (STATE_RECONNECTING == state) {
+      return "STATE_RECONNECTING";
+    }
     return "UNKNOWN:" + state;
   }
 
-  private synchronized void infoObservers(int code, Map<String, Object> bundle, Exception exception) {
+  private void infoObservers(int code, Map<String, Object> bundle, Exception exception) {
     for (BluetoothServiceStateObserver ob : observers) {
       ob.onBluetoothServiceStateChanged(code, bundle, exception);
     }
   }
 
   /**
-   * Return the current connection state.
+   * Return the connection state of the last connected device.
    */
-  //todo: get the method in react to check the current connection state
-  public synchronized int getState() {
-    return mState;
+  public int getState() {
+    return getState(null);
+  }
+
+  /**
+   * Return the connection state of a device.
+   *
+   * @param address The device address, or null for the last connected device
+   */
+  public int getState(@Nullable String address) {
+    ConnectedThread connection = getConnection(address);
+    return connection != null ? connection.connectionState() : STATE_NONE;
+  }
+
+  /**
+   * Return the addresses of the devices in the pool, connected or connecting
+   */
+  public synchronized List<String> getConnectionAddresses() {
+    return new ArrayList<String>(mConnections.keySet());
+  }
+
+  /**
+   * Return the connection of a device, marking it as the most recently used
+   *
+   * @param address The device address, or null for the last connected device
+   */
+  private synchronized ConnectedThread getConnection(@Nullable String address) {
+    return mConnections.get(address != null ? address : mLastConnectedDeviceAddress);
+  }
+
+  /**
+   * Return the connection of a device, only if it is connected
+   *
+   * @throws RejectedExecutionException when the device is not connected
+   */
+  private ConnectedThread getConnectedThread(@Nullable String address) {
+    ConnectedThread connection = getConnection(address);
+    if (connection == null || connection.connectionState() != STATE_CONNECTED) {
+      throw new RejectedExecutionException("Not connected to device " + (address != null ? address : mLastConnectedDeviceAddress));
+    }
+    return connection;
+  }
+
+  /**
+   * Return the connection of a device able to take jobs: connected, or reconnecting
+   * when the jobs wait in the queue until the connection is back
+   *
+   * @throws RejectedExecutionException when the device is not connected
+   */
+  private ConnectedThread getQueueingConnection(@Nullable String address) {
+    ConnectedThread connection = getConnection(address);
+    if (connection == null || (connection.connectionState() != STATE_CONNECTED && connection.connectionState() != STATE_RECONNECTING)) {
+      throw new RejectedExecutionException("Not connected to device " + (address != null ? address : mLastConnectedDeviceAddress));
+    }
+    return connection;
   }
 
   /**
    * Start the ConnectThread to initiate a connection to a remote device.
+   * The connections to other devices are kept, up to the max number of connections,
+   * closing the least recently used when there is no room.
    *
    * @param device The BluetoothDevice to connect
    */
-  @SuppressLint("MissingPermission")
-  public synchronized void connect(BluetoothDevice device) {
-    Log.d(TAG, "connect to: " + device);
-    BluetoothDevice connectedDevice = null;
-
-    if (mConnectedThread != null) {
-      connectedDevice = mConnectedThread.bluetoothDevice();
+  public void connect(BluetoothDevice device) {
+    if (mAdapter == null || mStrategyCache == null) {
+      throw new IllegalStateException("Bluetooth is not available in this service");
     }
+    connect(new BluetoothTransport(mAdapter, device, mStrategyCache));
+  }
+
+  /**
+   * Start the ConnectThread to initiate a connection through the given transport.
+   *
+   * @param transport The link to the printer, pooled by its address
+   */
+  public synchronized void connect(PrinterTransport transport) {
+    Log.d(TAG, "connect to: " + transport.getAddress());
+    String address = transport.getAddress();
+    ConnectedThread connection = mConnections.get(address);
 
     // device already connected into this device with same address
-    if (mState == STATE_CONNECTED && connectedDevice != null && connectedDevice.getAddress().equals(device.getAddress())) {
+    if (connection != null && connection.connectionState() == STATE_CONNECTED && connection.transport().isConnected()) {
+      mLastConnectedDeviceAddress = address;
+
       Map<String, Object> bundle = new HashMap<String, Object>();
-      bundle.put(DEVICE_NAME, device.getName());
-      bundle.put(DEVICE_ADDRESS, device.getAddress());
-      setState(STATE_CONNECTED, bundle);
-    } else {
-      // Cancel any thread currently running a connection
-      this.stop();
+      bundle.put(DEVICE_NAME, transport.getName());
+      setState(connection, STATE_CONNECTED, bundle);
+      return;
+    }
 
-      // Start the thread to manage the connection and perform transmissions
-      mConnectedThread = new ConnectedThread(device);
-      mConnectedThread.start();
+    // a connection to this device is already being made
+    if (connection != null && connection.connectionState() == STATE_CONNECTING) {
+      return;
     }
+
+    // Cancel the stale thread of this device and make room for the new connection
+    stop(address);
+    evictConnections(mMaxConnections - 1);
+
+    // Start the thread to manage the connection and perform transmissions
+    connection = new ConnectedThread(transport, new PrintQueue(mQueueCapacity, mBackpressure), 0);
+    mConnections.put(address, connection);
+    connection.start();
   }
 
   public synchronized boolean isConnectedThreadRunning() {
-    return mConnectedThread != null && mConnectedThread.isAlive();
+    ConnectedThread connection = getConnection(null);
+    return connection != null && connection.isAlive();
+  }
+
+  /**
+   * Change how many devices can stay connected at the same time
+   */
+  public synchronized void setMaxConnections(int maxConnections) {
+    mMaxConnections = Math.max(1, maxConnections);
+    evictConnections(mMaxConnections);
+  }
+
+  /**
+   * Close the least recently used connections until at most the given number is left
+   */
+  private synchronized void evictConnections(int keep) {
+    Iterator<ConnectedThread> iterator = mConnections.values().iterator();
+    List<ConnectedThread> evicted = new ArrayList<ConnectedThread>();
+
+    while (mConnections.size() > Math.max(0, keep) && iterator.hasNext()) {
+      evicted.add(iterator.next());
+      iterator.remove();
+    }
+
+    for (ConnectedThread connection : evicted) {
+      Log.i(TAG, "closing least recently used connection " + connection.address());
+      connection.cancel();
+    }
   }
 
   /**
    * Stop all threads
    */
   public synchronized void stop() {
-    if (mConnectedThread != null) {
-      mConnectedThread.cancel();
-      mConnectedThread = null;
+    List<ConnectedThread> connections = new ArrayList<ConnectedThread>(mConnections.values());
+    mConnections.clear();
+    for (ConnectedThread connection : connections) {
+      connection.cancel();
+    }
+  }
+
+  /**
+   * Stop the threads of a device
+   */
+  public synchronized void stop(String address) {
+    ConnectedThread connection = mConnections.remove(address);
+    if (connection != null) {
+      connection.cancel();
+    }
+  }
+
+  /**
+   * Remove the connection from the pool, if it was not replaced already
+   */
+  private synchronized void removeConnection(ConnectedThread connection) {
+    if (mConnections.get(connection.address()) == connection) {
+      mConnections.remove(connection.address());
+    }
+  }
+
+  /**
+   * Create a job with the next available id, to be given to submit()
+   *
+   * @param data The bytes to write
+   */
+  public PrintJob createJob(byte[] data) {
+    return new PrintJob(mNextJobId.getAndIncrement(), data);
+  }
+
+  /**
+   * Create a job written from several parts, without joining them
+   */
+  public PrintJob createJob(byte[][] parts) {
+    return new PrintJob(mNextJobId.getAndIncrement(), parts);
+  }
+
+  /**
+   * Create a job taken by its priority, in turns with the other sources of the same priority
+   */
+  public PrintJob createJob(byte[][] parts, PrintJob.Priority priority, String source) {
+    return new PrintJob(mNextJobId.getAndIncrement(), parts, priority, source);
+  }
+
+  /**
+   * Queue a job to be written by the writer thread of a device connection.
+   * Depending on the backpressure policy this may block until there is room in the queue.
+   *
+   * @param address The device address, or null for the last connected device
+   * @param job     The job to write
+   * @throws RejectedExecutionException when not connected or the queue refused the job
+   */
+  public void submit(@Nullable String address, PrintJob job) throws InterruptedException {
+    ConnectedThread connection = getQueueingConnection(address);
+
+    PrintJournal journal = mJournal;
+    if (journal != null) {
+      try {
+        journal.append(connection.address(), job);
+      } catch (IOException e) {
+        Log.e(TAG, "unable to spool job " + job.getId(), e);
+      }
+    }
+
+    PrintJob dropped;
+    try {
+      dropped = connection.queue().put(job);
+    } catch (RejectedExecutionException | InterruptedException e) {
+      spoolDone(job);
+      throw e;
+    }
+
+    if (dropped != null) {
+      jobFailed(connection, dropped, new RejectedExecutionException("Job dropped to make room in the print queue"), false);
+    }
+  }
+
+  /**
+   * Keep the jobs in a journal on disk until they are written, so they survive the app
+   * being killed or the connection being lost. The jobs left by the last run are queued
+   * again, after ESC @, when their printer connects.
+   *
+   * @param directory     Where the journal segments are kept
+   * @param statusTimeout Timeout of the status request sent after each job, which is only
+   *                      done once the printer answers without error; 0 to not ask
+   */
+  public synchronized void enableSpooler(File directory, int statusTimeout) throws IOException {
+    disableSpooler();
+    PrintJournal journal = new PrintJournal(directory, PrintJournal.DEFAULT_SEGMENT_SIZE);
+
+    // the jobs of the last run keep their ids, new jobs must not take them
+    int next = journal.getMaxJobId() + 1;
+    int current = mNextJobId.get();
+    while (current < next && !mNextJobId.compareAndSet(current, next)) {
+      current = mNextJobId.get();
+    }
+
+    mSpoolStatusTimeout = Math.max(0, statusTimeout);
+    mJournal = journal;
+
+    for (ConnectedThread connection : mConnections.values()) {
+      if (connection.connectionState() == STATE_CONNECTED) {
+        replaySpooled(connection);
+      }
+    }
+  }
+
+  /**
+   * Stop journaling the jobs, the ones still in the journal are replayed once enabled again
+   */
+  public synchronized void disableSpooler() {
+    if (mJournal != null) {
+      mJournal.close();
+      mJournal = null;
     }
   }
 
   /**
-   * Write to the ConnectedThread in an unsynchronized manner
+   * The jobs in the journal not written yet, empty when the spooler is disabled
+   */
+  public List<PrintJournal.Entry> getSpooledJobs() {
+    PrintJournal journal = mJournal;
+    return journal != null ? journal.getPending() : new ArrayList<PrintJournal.Entry>();
+  }
+
+  /**
+   * Queue the spooled jobs of the printer that are in no queue, in a thread of their own
+   * as the queue may block until the writer makes room
+   */
+  private void replaySpooled(final ConnectedThread connection) {
+    final PrintJournal journal = mJournal;
+    if (journal == null) {
+      return;
+    }
+
+    final List<PrintJournal.Entry> replay = journal.takeReplay(connection.address());
+    if (replay.isEmpty()) {
+      return;
+    }
+
+    Log.i(TAG, "replaying " + replay.size() + " spooled jobs to " + connection.address());
+
+    new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (PrintJournal.Entry entry : replay) {
+          try {
+            // the job may have been cut in the middle of a command, ESC @ first
+            PrintJob job = new PrintJob(entry.getJobId(), new byte[][]{{0x1B, '@'}, journal.read(entry)});
+            PrintJob dropped = connection.queue().put(job);
+
+            if (dropped != null) {
+              jobFailed(connection, dropped, new RejectedExecutionException("Job dropped to make room in the print queue"), false);
+            }
+          } catch (IOException | InterruptedException | RejectedExecutionException e) {
+            Log.e(TAG, "unable to replay spooled job " + entry.getJobId(), e);
+            journal.release(entry.getJobId());
+          }
+        }
+      }
+    }, "SpoolReplayThread").start();
+  }
+
+  /**
+   * Mark the job done in the journal, it won't be replayed
+   */
+  private void spoolDone(PrintJob job) {
+    PrintJournal journal = mJournal;
+    if (journal == null) {
+      return;
+    }
+
+    try {
+      journal.remove(job.getId());
+    } catch (IOException e) {
+      Log.e(TAG, "unable to mark spooled job " + job.getId() + " as done", e);
+    }
+  }
+
+  /**
+   * With the spooler, a job is only done once the printer answers the status request
+   * sent after it without an error
+   */
+  private void confirmWritten(ConnectedThread connection) throws Exception {
+    int timeout = mSpoolStatusTimeout;
+    if (mJournal == null || timeout <= 0) {
+      return;
+    }
+
+    PrinterStatus status = connection.queryStatus(timeout);
+    if (status.isError() || status.isPaperOut()) {
+      throw new IOException("Printer reported an error after the job was written");
+    }
+  }
+
+  /**
+   * Cancel a job. A job waiting in a queue is removed from it, a job being written stops
+   * at the next chunk and the printer is reset with ESC @. The job then fails.
    *
-   * @param out The bytes to write
-   * @see ConnectedThread#write(byte[])
+   * @return false when the job is not queued nor being written, or its last chunk is
+   * already being written and it will complete
    */
-  public void write(byte[] out) throws Exception {
-    // Create temporary object
-    ConnectedThread r;
-    // Synchronize a copy of the ConnectedThread
+  public boolean cancelJob(int jobId) {
+    List<ConnectedThread> connections;
     synchronized (this) {
-      if (mState != STATE_CONNECTED) return;
-      r = mConnectedThread;
+      connections = new ArrayList<ConnectedThread>(mConnections.values());
+    }
+
+    for (ConnectedThread connection : connections) {
+      PrintJob queued = connection.queue().remove(jobId);
+      if (queued != null) {
+        queued.cancel();
+        jobFailed(connection, queued, new CancellationException("Job cancelled"), false);
+        return true;
+      }
+
+      PrintJob current = connection.currentJob();
+      if (current != null && current.getId() == jobId) {
+        return current.cancel();
+      }
     }
-    r.write(out);
+    return false;
+  }
+
+  /**
+   * Send the progress of the jobs being written at most every interval ms, 0 to not send it
+   */
+  public void setProgressInterval(int interval) {
+    mProgressInterval = Math.max(0, interval);
+  }
+
+  /**
+   * Change the size of the print queue and what to do when it is full
+   */
+  public synchronized void setQueueOptions(int capacity, PrintQueue.Backpressure backpressure) {
+    mQueueCapacity = capacity;
+    mBackpressure = backpressure;
+    for (ConnectedThread connection : mConnections.values()) {
+      connection.queue().configure(capacity, backpressure);
+    }
+  }
+
+  /**
+   * Change how the jobs are chunked and paced when written
+   */
+  public synchronized void setWriteOptions(WriteOptions options) {
+    mWriteOptions = options;
+    for (ConnectedThread connection : mConnections.values()) {
+      connection.flowControl().setOptions(options);
+    }
+  }
+
+  /**
+   * Change what is logged about the jobs written
+   *
+   * @param level        The log level
+   * @param hexDumpBytes How many bytes of each job are dumped, for HEX_DUMP
+   */
+  public void setWriteLogLevel(WriteLogLevel level, int hexDumpBytes) {
+    mWriteLogLevel = level;
+    mHexDumpBytes = Math.max(0, hexDumpBytes);
+  }
+
+  /**
+   * Change the keep-alive of the connections, starting or stopping the idle probes
+   */
+  public synchronized void setKeepAlive(KeepAliveOptions options) {
+    mKeepAlive = options;
+
+    if (mProbeTask != null) {
+      mProbeTask.cancel(false);
+      mProbeTask = null;
+    }
+
+    if (options.isEnabled() && options.getProbeInterval() > 0) {
+      mProbeTask = scheduler().scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          probeIdleConnections();
+        }
+      }, options.getProbeInterval(), options.getProbeInterval(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private synchronized ScheduledExecutorService scheduler() {
+    if (mScheduler == null) {
+      mScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+    return mScheduler;
+  }
+
+  /**
+   * Send a status request to the connections idle for longer than the probe interval,
+   * closing the socket of the ones that don't answer so they are reconnected
+   */
+  private void probeIdleConnections() {
+    KeepAliveOptions options = mKeepAlive;
+    List<ConnectedThread> connections;
+    synchronized (this) {
+      connections = new ArrayList<ConnectedThread>(mConnections.values());
+    }
+
+    for (ConnectedThread connection : connections) {
+      if (connection.connectionState() != STATE_CONNECTED || connection.idleTime() < options.getProbeInterval()) {
+        continue;
+      }
+
+      try {
+        connection.probe(options.getProbeTimeout());
+      } catch (Exception e) {
+        Log.w(TAG, "keep-alive probe failed for " + connection.address() + ", dropping connection", e);
+        connection.dropSocket();
+      }
+    }
+  }
+
+  /**
+   * Schedule a new connection to the device of a lost connection, keeping its print queue
+   */
+  private void scheduleReconnect(final ConnectedThread lost, final int attempt) {
+    KeepAliveOptions options = mKeepAlive;
+
+    if (options.getMaxAttempts() > 0 && attempt > options.getMaxAttempts()) {
+      Log.e(TAG, "giving up reconnecting to " + lost.address() + " after " + options.getMaxAttempts() + " attempts");
+      lost.closeQueue();
+      setState(lost, STATE_NONE, null);
+      removeConnection(lost);
+      return;
+    }
+
+    Map<String, Object> bundle = new HashMap<String, Object>();
+    bundle.put(ATTEMPT, attempt);
+    setState(lost, STATE_RECONNECTING, bundle);
+
+    scheduler().schedule(new Runnable() {
+      @Override
+      public void run() {
+        reconnect(lost, attempt);
+      }
+    }, options.backoff(attempt), TimeUnit.MILLISECONDS);
+  }
+
+  private void reconnect(final ConnectedThread lost, final int attempt) {
+    if (!isPooled(lost)) {
+      return;
+    }
+
+    // the writer of the lost connection must be gone before its queue is given to a new one
+    boolean stopped;
+    try {
+      stopped = lost.joinWriter(WRITER_STOP_TIMEOUT);
+    } catch (InterruptedException e) {
+      return;
+    }
+
+    if (!stopped) {
+      Log.w(TAG, "writer of " + lost.address() + " still running, delaying the reconnect");
+      scheduler().schedule(new Runnable() {
+        @Override
+        public void run() {
+          reconnect(lost, attempt);
+        }
+      }, WRITER_STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+      return;
+    }
+
+    synchronized (this) {
+      // the device was disconnected or connected again meanwhile
+      if (mConnections.get(lost.address()) != lost) {
+        return;
+      }
+
+      ConnectedThread connection = new ConnectedThread(lost.transport(), lost.queue(), attempt);
+      connection.setConnectionState(STATE_RECONNECTING);
+      mConnections.put(lost.address(), connection);
+      connection.start();
+    }
+  }
+
+  private synchronized boolean isPooled(ConnectedThread connection) {
+    return mConnections.get(connection.address()) == connection;
+  }
+
+  /**
+   * Whether a lost or failed connection should be reconnected
+   */
+  private boolean shouldReconnect(ConnectedThread connection) {
+    if (!mKeepAlive.isEnabled() || connection.isCancelled()) {
+      return false;
+    }
+    return isPooled(connection);
+  }
+
+  /**
+   * Return the connection strategy remembered for each device, with its connect timings
+   */
+  public Map<String, ConnectionStrategyCache.Entry> getConnectionStrategies() {
+    if (mStrategyCache == null) {
+      return Collections.emptyMap();
+    }
+    return mStrategyCache.getAll();
+  }
+
+  /**
+   * Return the connect phase timings and the job write timings
+   */
+  public ServiceMetrics getMetrics() {
+    return mMetrics;
+  }
+
+  public void resetMetrics() {
+    mMetrics.reset();
+  }
+
+  /**
+   * Forget the connection strategy remembered for a device
+   */
+  public void forgetConnectionStrategy(String address) {
+    if (mStrategyCache != null) {
+      mStrategyCache.clear(address);
+    }
+  }
+
+  /**
+   * Move the bytes received from the device, not read yet, into a new array
+   *
+   * @param address The device address, or null for the last connected device
+   */
+  public byte[] readInbound(@Nullable String address) {
+    ConnectedThread connection = getConnection(address);
+    return connection != null ? connection.inbound().readAll() : new byte[0];
+  }
+
+  /**
+   * Ask the device for its real-time status, blocking until it replies.
+   * The requests skip the print queue and are sent between the chunks of the job being written.
+   *
+   * @param address The device address, or null for the last connected device
+   * @param timeout Milliseconds to wait for each reply, after the job being written ends
+   * @throws TimeoutException when the device does not reply in time
+   */
+  public PrinterStatus queryStatus(@Nullable String address, int timeout) throws Exception {
+    return getConnectedThread(address).queryStatus(timeout);
+  }
+
+  /**
+   * Return the number of jobs waiting to be written to a device
+   *
+   * @param address The device address, or null for the last connected device
+   */
+  public int getQueueDepth(@Nullable String address) {
+    ConnectedThread connection = getConnection(address);
+    return connection != null ? connection.queue().size() : 0;
+  }
+
+  private void jobCompleted(ConnectedThread connection, PrintJob job) {
+    spoolDone(job);
+
+    Map<String, Object> bundle = new HashMap<String, Object>();
+    bundle.put(JOB_ID, job.getId());
+    bundle.put(BYTES, job.getWritten());
+    bundle.put(QUEUE_DEPTH, connection.queue().size());
+    infoObservers(MESSAGE_JOB_COMPLETED, deviceBundle(connection, bundle), null);
+  }
+
+  /**
+   * @param elapsed Nanoseconds since the job started being written, for the time remaining
+   */
+  private void jobProgress(ConnectedThread connection, PrintJob job, int written, long elapsed) {
+    Map<String, Object> bundle = new HashMap<String, Object>();
+    bundle.put(JOB_ID, job.getId());
+    bundle.put(BYTES, written);
+    bundle.put(TOTAL, job.getSize());
+    bundle.put(ETA, (job.getSize() - written) * (elapsed / 1000000L) / written);
+    infoObservers(MESSAGE_JOB_PROGRESS, deviceBundle(connection, bundle), null);
+  }
+
+  /**
+   * @param keepSpooled Whether the job stays in the journal, to be replayed
+   */
+  private void jobFailed(ConnectedThread connection, PrintJob job, Exception exception, boolean keepSpooled) {
+    PrintJournal journal = mJournal;
+    boolean spooled = false;
+
+    if (keepSpooled && journal != null) {
+      spooled = journal.release(job.getId());
+    } else {
+      spoolDone(job);
+    }
+
+    Map<String, Object> bundle = new HashMap<String, Object>();
+    bundle.put(JOB_ID, job.getId());
+    bundle.put(BYTES, job.getWritten());
+    bundle.put(SPOOLED, spooled);
+    bundle.put(QUEUE_DEPTH, connection.queue().size());
+    mMetrics.recordFailure();
+    infoObservers(MESSAGE_JOB_FAILED, deviceBundle(connection, bundle), exception);
   }
 
   /**
    * Indicate that the connection attempt failed.
    */
-  private void connectionFailed(Exception e) {
-    infoObservers(MESSAGE_UNABLE_CONNECT, null, e);
-    setState(STATE_NONE, null);
+  private void connectionFailed(ConnectedThread connection, Exception e) {
+    // a failed reconnect attempt waits for the next one
+    if (connection.attempt() > 0 && shouldReconnect(connection)) {
+      Log.w(TAG, "reconnect attempt " + connection.attempt() + " to " + connection.address() + " failed");
+      scheduleReconnect(connection, connection.attempt() + 1);
+      return;
+    }
+
+    infoObservers(MESSAGE_UNABLE_CONNECT, deviceBundle(connection, null), e);
+    connection.closeQueue();
+    setState(connection, STATE_NONE, null);
+    removeConnection(connection);
   }
 
   /**
    * Indicate that the connection was lost and notify the UI Activity.
    */
-  private void connectionLost(@Nullable Exception exception) {
-    infoObservers(MESSAGE_CONNECTION_LOST, null, exception);
-    setState(STATE_NONE, null);
+  private void connectionLost(ConnectedThread connection, @Nullable Exception exception) {
+    infoObservers(MESSAGE_CONNECTION_LOST, deviceBundle(connection, null), exception);
+
+    // with keep-alive the queued jobs wait for the connection to be back
+    if (shouldReconnect(connection)) {
+      connection.stopWriter();
+      scheduleReconnect(connection, 1);
+      return;
+    }
+
+    connection.closeQueue();
+    setState(connection, STATE_NONE, null);
+    removeConnection(connection);
   }
 
   /**
@@ -205,78 +899,116 @@ public class BluetoothService {
    * It handles all incoming and outgoing transmissions.
    */
   private class ConnectedThread extends Thread {
-    private final BluetoothDevice mmDevice;
-    private BluetoothSocket mmSocket;
+    private final PrinterTransport mmTransport;
+    private final PrintQueue mmQueue;
+    private final FlowControl mmFlowControl;
+    private final InboundBuffer mmInbound;
+    private final StatusQuery mmStatusQuery = new StatusQuery();
+    // serializes the writes to the OutStream between the writer thread and status requests,
+    // a status request waits for the job being written to end
+    private final Object mmWriteLock = new Object();
+    // only one status request is sent at a time
+    private final Object mmStatusLock = new Object();
     private InputStream mmInStream;
     private OutputStream mmOutStream;
+    @Nullable
+    private volatile WriterThread mmWriterThread;
+    private volatile int mmState = STATE_NONE;
+    // reconnect attempt that created this connection, 0 when connected by the user
+    private final int mmAttempt;
+    private volatile boolean mmCancelled = false;
+    private volatile boolean mmWriting = false;
+    private volatile long mmLastActivity = System.currentTimeMillis();
+    // small parts are copied here and written together, only used by the writer thread
+    private byte[] mmGather;
+    @Nullable
+    private volatile PrintJob mmCurrentJob;
+
+    public ConnectedThread(PrinterTransport transport, PrintQueue queue, int attempt) {
+      mmTransport = transport;
+      mmQueue = queue;
+      mmAttempt = attempt;
+      // before the thread can be cancelled, so a cancel before open() is not lost
+      mmTransport.reset();
+      mmFlowControl = new FlowControl(mWriteOptions);
+      mmInbound = new InboundBuffer(InboundBuffer.DEFAULT_CAPACITY);
+    }
+
+    public InboundBuffer inbound() {
+      return mmInbound;
+    }
+
+    public String address() {
+      return mmTransport.getAddress();
+    }
+
+    public PrinterTransport transport() {
+      return mmTransport;
+    }
+
+    public int attempt() {
+      return mmAttempt;
+    }
+
+    public boolean isCancelled() {
+      return mmCancelled;
+    }
+
+    /**
+     * Milliseconds since the last byte was read or written, 0 while writing
+     */
+    public long idleTime() {
+      return mmWriting ? 0 : System.currentTimeMillis() - mmLastActivity;
+    }
+
+    public int connectionState() {
+      return mmState;
+    }
+
+    public void setConnectionState(int state) {
+      mmState = state;
+    }
+
+    public PrintQueue queue() {
+      return mmQueue;
+    }
 
-    public ConnectedThread(BluetoothDevice device) {
-      mmDevice = device;
-      device.getAddress();
+    @Nullable
+    public PrintJob currentJob() {
+      return mmCurrentJob;
+    }
+
+    public FlowControl flowControl() {
+      return mmFlowControl;
     }
 
-    @SuppressLint("MissingPermission")
     @Override
     public void run() {
-      //
-      setState(STATE_CONNECTING, null);
+      // reconnect attempts stay in STATE_RECONNECTING, so jobs keep being queued
+      if (mmAttempt == 0) {
+        setState(this, STATE_CONNECTING, null);
+      }
 
       Log.i(TAG, "BEGIN mConnectThread");
       setName("ConnectThread");
       Map<String, Object> bundle = new HashMap<String, Object>();
 
-      // Always cancel discovery because it will slow down a connection
-      mAdapter.cancelDiscovery();
-
-      BluetoothSocket tmp = null;
+      long connectStartedAt = System.nanoTime();
       Exception exception = null;
 
-      // try to connect with socket inner method firstly.
-      for (int i = 1; i <= 3; i++) {
+      if (!mmCancelled) {
         try {
-          tmp = (BluetoothSocket) mmDevice.getClass().getMethod("createRfcommSocket", int.class).invoke(mmDevice, i);
+          mmTransport.open(mMetrics);
         } catch (Exception e) {
-          Log.e(TAG, "createRfcommSocket() failed:", e);
-          e.printStackTrace();
-          exception = e;
-        }
-        if (tmp != null) {
-          mmSocket = tmp;
-          break;
-        }
-      }
-
-      // try with given uuid
-      if (mmSocket == null) {
-        try {
-          tmp = mmDevice.createRfcommSocketToServiceRecord(MY_UUID);
-        } catch (IOException e) {
-          e.printStackTrace();
           exception = e;
         }
-        if (tmp == null) {
-          Log.e(TAG, "createRfcommSocketToServiceRecord() failed:", exception);
-          connectionFailed(exception);
-          return;
-        }
       }
-      mmSocket = tmp;
-
-      // Make a connection to the BluetoothSocket
-      try {
-        // This is a blocking call and will only return on a
-        // successful connection or an exception
-        mmSocket.connect();
-      } catch (Exception e) {
-        e.printStackTrace();
-        connectionFailed(e);
 
-        // Close the socket
-        try {
-          mmSocket.close();
-        } catch (Exception e2) {
-          Log.e(TAG, "unable to close() socket during connection failure", e2);
+      if (exception != null || mmCancelled) {
+        if (mmCancelled) {
+          closeTransport();
         }
+        connectionFailed(this, exception != null ? exception : new IOException("Connection cancelled"));
         return;
       }
 
@@ -284,46 +1016,69 @@ public class BluetoothService {
       InputStream tmpIn = null;
       OutputStream tmpOut = null;
 
-      // Get the BluetoothSocket input and output streams
+      // Get the transport input and output streams
+      long streamStartedAt = System.nanoTime();
       try {
-        tmpIn = mmSocket.getInputStream();
-        tmpOut = mmSocket.getOutputStream();
+        tmpIn = mmTransport.getInputStream();
+        tmpOut = mmTransport.getOutputStream();
       } catch (IOException e) {
         Log.e(TAG, "temp sockets not created", e);
       }
+      mMetrics.recordSince(ServiceMetrics.STREAM_SETUP, streamStartedAt);
+      mMetrics.recordSince(ServiceMetrics.CONNECT_TOTAL, connectStartedAt);
 
       mmInStream = tmpIn;
       mmOutStream = tmpOut;
 
-      bundle.put(DEVICE_NAME, mmDevice.getName());
-      bundle.put(DEVICE_ADDRESS, mmDevice.getAddress());
-      setState(STATE_CONNECTED, bundle);
+      // Start draining the print queue before announcing the connection
+      mmWriterThread = new WriterThread(this);
+      mmWriterThread.start();
+
+      //keep the address of last connected device and get this address directly in the .js code
+      mLastConnectedDeviceAddress = address();
+
+      bundle.put(DEVICE_NAME, mmTransport.getName());
+      setState(this, STATE_CONNECTED, bundle);
+      replaySpooled(this);
 
       Log.i(TAG, "Connected");
       int bytes;
 
-      //keep the address of last connected device and get this address directly in the .js code
-      mLastConnectedDeviceAddress = mmDevice.getAddress();
+      // Single buffer reused by every read of this connection
+      byte[] buffer = new byte[256];
 
       // Keep listening to the InputStream while connected
       while (true) {
         try {
-          byte[] buffer = new byte[256];
           // Read from the InputStream
           bytes = mmInStream.read(buffer);
           if (bytes > 0) {
-            // Send the obtained bytes to the UI Activity
-            bundle = new HashMap<String, Object>();
-            bundle.put("bytes", bytes);
-            infoObservers(MESSAGE_READ, bundle, null);
+            mmLastActivity = System.currentTimeMillis();
+            mmFlowControl.onRead(buffer, 0, bytes);
+
+            // a reply to a pending status request is not kept in the inbound buffer
+            int reply = mmStatusQuery.onRead(buffer, 0, bytes);
+            if (reply < 0) {
+              mmInbound.write(buffer, 0, bytes);
+            } else {
+              mmInbound.write(buffer, 0, reply);
+              mmInbound.write(buffer, reply + 1, bytes - reply - 1);
+            }
+
+            // Tell the observers there are bytes available in the inbound buffer
+            infoObservers(MESSAGE_READ, null, null);
           } else {
             Log.e(TAG, "disconnected");
-            connectionLost(null);
+            if (!mmCancelled) {
+              connectionLost(this, null);
+            }
             break;
           }
         } catch (IOException e) {
           Log.e(TAG, "disconnected", e);
-          connectionLost(e);
+          if (!mmCancelled) {
+            connectionLost(this, e);
+          }
           break;
         }
       }
@@ -331,41 +1086,331 @@ public class BluetoothService {
     }
 
     /**
-     * Write to the connected OutStream.
+     * Write to the connected OutStream, in chunks paced by the flow control.
+     * The parts are gathered into the chunks, so small parts don't cost a flush each,
+     * and copied together, so they don't cost a write each. The bytes of the job
+     * written so far are updated after each chunk, where the job can be cancelled.
+     * Without a chunk size, the job is written in chunks of GATHER_SIZE.
      *
-     * @param buffer The bytes to write
+     * @param job The job to write, its parts in order
      */
-    public void write(byte[] buffer) throws Exception {
+    public void write(PrintJob job) throws Exception {
+      byte[][] parts = job.getParts();
+      int total = job.getSize();
+
+      int chunkSize = mmFlowControl.getOptions().getChunkSize();
+      if (chunkSize <= 0) {
+        chunkSize = GATHER_SIZE;
+      }
+
+      mmWriting = true;
+      mmCurrentJob = job;
       try {
-        mmOutStream.write(buffer);
-        mmOutStream.flush(); // clean cache
-        Log.i(TAG, new String(buffer, StandardCharsets.UTF_8));
-        Map<String, Object> bundle = new HashMap<String, Object>();
-        bundle.put("bytes", buffer);
-        infoObservers(MESSAGE_WRITE, bundle, null);
+        long startedAt = System.nanoTime();
+        long progressAt = startedAt;
+        int part = 0;
+        int partOffset = 0;
+
+        // held for the whole job: a status request between two chunks could land
+        // inside a raster or graphics block, and be printed as image data
+        synchronized (mmWriteLock) {
+          for (int offset = 0; offset < total; ) {
+            mmFlowControl.awaitChunk(offset, startedAt);
+            int chunkEnd = Math.min(total, offset + chunkSize);
+            if (!job.claimChunk(chunkEnd == total)) {
+              abortWrite(offset, total);
+            }
+
+            int gathered = 0;
+
+            while (offset < chunkEnd) {
+              byte[] data = parts[part];
+              int length = Math.min(data.length - partOffset, chunkEnd - offset);
+
+              if (length >= GATHER_SIZE) {
+                writeGathered(gathered);
+                gathered = 0;
+                mmOutStream.write(data, partOffset, length);
+              } else {
+                if (gathered + length > GATHER_SIZE) {
+                  writeGathered(gathered);
+                  gathered = 0;
+                }
+                if (mmGather == null) {
+                  mmGather = new byte[GATHER_SIZE];
+                }
+                System.arraycopy(data, partOffset, mmGather, gathered, length);
+                gathered += length;
+              }
+
+              offset += length;
+              partOffset += length;
+              if (partOffset == data.length) {
+                part++;
+                partOffset = 0;
+              }
+            }
+            writeGathered(gathered);
+            mmOutStream.flush(); // clean cache
+            job.setWritten(offset);
+
+            int interval = mProgressInterval;
+            long now = System.nanoTime();
+            if (interval > 0 && offset < total && now - progressAt >= interval * 1000000L) {
+              progressAt = now;
+              jobProgress(this, job, offset, now - startedAt);
+            }
+          }
+        }
+        long elapsed = System.nanoTime() - startedAt;
+        long duration = elapsed / 1000000L;
+
+        mMetrics.recordWrite(total, elapsed);
+        logWrite(parts, total, duration);
+
+        // no bundle, this runs for every job: the bytes and time are in the metrics
+        infoObservers(MESSAGE_WRITE, null, null);
       } catch (IOException e) {
         Log.e(TAG, "Exception during write", e);
         infoObservers(MESSAGE_UNABLE_PRINT, null, e);
         throw e;
+      } finally {
+        mmWriting = false;
+        mmCurrentJob = null;
+        mmLastActivity = System.currentTimeMillis();
       }
     }
 
-    public BluetoothDevice bluetoothDevice() {
-      if (mmSocket != null && mmSocket.isConnected()) {
-        return mmSocket.getRemoteDevice();
-      } else {
-        return null;
+    /**
+     * Stop a cancelled job, resetting the printer when part of it was sent and the rest held back
+     */
+    private void abortWrite(int offset, int total) throws IOException {
+      if (offset > 0 && offset < total) {
+        synchronized (mmWriteLock) {
+          mmOutStream.write(RESET);
+          mmOutStream.flush();
+        }
       }
+      throw new CancellationException("Job cancelled after " + offset + " bytes");
     }
 
-    public void cancel() {
+    private void writeGathered(int length) throws IOException {
+      if (length > 0) {
+        mmOutStream.write(mmGather, 0, length);
+      }
+    }
+
+    /**
+     * Send DLE EOT 1 to 4 and wait for the reply of each one
+     */
+    public PrinterStatus queryStatus(int timeout) throws Exception {
+      int[] replies = new int[4];
+
+      synchronized (mmStatusLock) {
+        for (int n = PrinterStatus.PRINTER; n <= PrinterStatus.PAPER_SENSOR; n++) {
+          replies[n - 1] = requestStatus(n, timeout);
+        }
+      }
+
+      return new PrinterStatus(replies[0], replies[1], replies[2], replies[3]);
+    }
+
+    /**
+     * Send only DLE EOT 1, the cheapest request that proves the device is still there
+     */
+    public void probe(int timeout) throws Exception {
+      synchronized (mmStatusLock) {
+        requestStatus(PrinterStatus.PRINTER, timeout);
+      }
+    }
+
+    private int requestStatus(int n, int timeout) throws Exception {
+      mmStatusQuery.arm();
+      synchronized (mmWriteLock) {
+        mmStatusQuery.sending();
+        mmOutStream.write(StatusQuery.command(n));
+        mmOutStream.flush();
+      }
+
+      int reply = mmStatusQuery.await(timeout);
+      if (reply < 0) {
+        throw new IOException("Connection closed while waiting for the status reply");
+      }
+      return reply;
+    }
+
+    /**
+     * Stop the writer thread and abort the pending status request,
+     * keeping the jobs in the queue
+     */
+    private void stopWriter() {
+      mmStatusQuery.cancel();
+
+      WriterThread writer = mmWriterThread;
+      if (writer != null) {
+        writer.stopWriting();
+      }
+    }
+
+    /**
+     * Wait for the writer thread to end, after stopWriter()
+     *
+     * @return false when it is still running after the timeout
+     */
+    public boolean joinWriter(long timeout) throws InterruptedException {
+      WriterThread writer = mmWriterThread;
+      if (writer == null) {
+        return true;
+      }
+      writer.join(timeout);
+      return !writer.isAlive();
+    }
+
+    /**
+     * Stop the writer thread and fail every job still waiting in the queue
+     */
+    private void closeQueue() {
+      List<PrintJob> pending = mmQueue.close();
+      stopWriter();
+
+      for (PrintJob job : pending) {
+        jobFailed(this, job, new RejectedExecutionException("Connection closed before the job was written"), true);
+      }
+    }
+
+    /**
+     * Close the transport without cancelling, the read loop then handles it as a lost connection
+     */
+    public void dropSocket() {
+      closeTransport();
+    }
+
+    private void closeTransport() {
       try {
-        mmSocket.close();
-        connectionLost(null);
+        mmTransport.close();
       } catch (IOException e) {
         Log.e(TAG, "close() of connect socket failed", e);
       }
     }
+
+    public void cancel() {
+      mmCancelled = true;
+      closeQueue();
+      closeTransport();
+      connectionLost(this, null);
+    }
+  }
+
+
+  private void logWrite(byte[][] parts, int total, long duration) {
+    WriteLogLevel level = mWriteLogLevel;
+
+    if (level == WriteLogLevel.OFF) {
+      return;
+    }
+
+    String summary = "write " + total + " bytes in " + duration + "ms";
+
+    if (level == WriteLogLevel.HEX_DUMP) {
+      Log.d(TAG, summary + ": " + hexDump(parts, mHexDumpBytes));
+    } else {
+      Log.d(TAG, summary);
+    }
+  }
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  /**
+   * Format the first bytes of the parts as hex, without decoding the rest of them
+   */
+  static String hexDump(byte[][] parts, int maxBytes) {
+    StringBuilder builder = new StringBuilder(maxBytes * 3 + 4);
+    int count = 0;
+
+    for (byte[] buffer : parts) {
+      for (int i = 0; i < buffer.length; i++) {
+        if (count == maxBytes) {
+          builder.append(" ...");
+          return builder.toString();
+        }
+        if (count > 0) {
+          builder.append(' ');
+        }
+        builder.append(HEX_DIGITS[(buffer[i] >> 4) & 0x0F]);
+        builder.append(HEX_DIGITS[buffer[i] & 0x0F]);
+        count++;
+      }
+    }
+
+    return builder.toString();
+  }
+
+  /**
+   * This thread writes the jobs of a connection, one at a time, in the order they were queued.
+   */
+  private class WriterThread extends Thread {
+    private final ConnectedThread mmConnection;
+    // set when the connection is lost, the queue may then be drained by the writer of a new connection
+    private volatile boolean mmStopped = false;
+
+    public WriterThread(ConnectedThread connection) {
+      mmConnection = connection;
+      setName("WriterThread");
+    }
+
+    /**
+     * Take no more jobs, and abort the wait or write in progress.
+     * The interrupt alone is not enough, it may be swallowed by the write it aborts.
+     */
+    public void stopWriting() {
+      mmStopped = true;
+      interrupt();
+    }
+
+    @Override
+    public void run() {
+      PrintQueue queue = mmConnection.queue();
+
+      while (!mmStopped) {
+        PrintJob job;
+        try {
+          job = queue.take();
+        } catch (InterruptedException e) {
+          break;
+        }
+
+        if (job == null) {
+          break;
+        }
+
+        if (mmStopped) {
+          // taken while being stopped, it is left to the writer of the next connection
+          if (!queue.requeue(job)) {
+            jobFailed(mmConnection, job, new RejectedExecutionException("Connection closed before the job was written"), true);
+          }
+          break;
+        }
+        mMetrics.record(ServiceMetrics.JOB_QUEUE_WAIT, System.currentTimeMillis() - job.getCreatedAt());
+
+        try {
+          mmConnection.write(job);
+          confirmWritten(mmConnection);
+          jobCompleted(mmConnection, job);
+        } catch (CancellationException e) {
+          jobFailed(mmConnection, job, e, false);
+        } catch (InterruptedException e) {
+          jobFailed(mmConnection, job, e, true);
+          break;
+        } catch (Exception e) {
+          jobFailed(mmConnection, job, e, true);
+          if (!mmConnection.transport().isConnected()) {
+            // the link is gone, the jobs left wait for the read loop to reconnect or close the queue
+            break;
+          }
+        }
+      }
+      Log.i(TAG, "WriterThread End");
+    }
   }
 
 
@@ -0,0 +1,229 @@
+package com.bluetoothprinter;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RFCOMM link to a Bluetooth printer, trying first the socket strategy that worked last time.
+ * All the strategies share one connect deadline, and the others are not tried when the
+ * device did not answer at all, as no other strategy reaches a printer that is off.
+ */
+public class BluetoothTransport implements PrinterTransport {
+  private static final String TAG = "RNBluetoothPrinter";
+
+  //UUID must be this
+  // Unique UUID for this application
+  private static final UUID MY_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+  // time all the strategies of an open() have to connect
+  public static final int CONNECT_DEADLINE = 12000;
+
+  // closes the sockets still connecting at the deadline, BluetoothSocket.connect() has no timeout
+  private static final ScheduledExecutorService sDeadlines = Executors.newSingleThreadScheduledExecutor();
+
+  private final BluetoothAdapter mAdapter;
+  private final BluetoothDevice mDevice;
+  private final ConnectionStrategyCache mStrategyCache;
+  private volatile BluetoothSocket mSocket;
+  private volatile boolean mClosed = false;
+
+  public BluetoothTransport(BluetoothAdapter adapter, BluetoothDevice device, ConnectionStrategyCache strategyCache) {
+    mAdapter = adapter;
+    mDevice = device;
+    mStrategyCache = strategyCache;
+  }
+
+  public BluetoothDevice getDevice() {
+    return mDevice;
+  }
+
+  @Override
+  public String getAddress() {
+    return mDevice.getAddress();
+  }
+
+  @SuppressLint("MissingPermission")
+  @Nullable
+  @Override
+  public String getName() {
+    return mDevice.getName();
+  }
+
+  @SuppressLint("MissingPermission")
+  @Override
+  public void open(ServiceMetrics metrics) throws IOException {
+    closeSocket();
+
+    long startedAt = System.nanoTime();
+
+    // Always cancel discovery because it will slow down a connection
+    mAdapter.cancelDiscovery();
+    metrics.recordSince(ServiceMetrics.CANCEL_DISCOVERY, startedAt);
+
+    long connectStartedAt = System.currentTimeMillis();
+    long deadline = connectStartedAt + CONNECT_DEADLINE;
+    IOException exception = null;
+
+    // try the strategy that worked last time for this device first, then the others
+    for (int strategy : mStrategyCache.strategies(getAddress())) {
+      if (mClosed) {
+        exception = new IOException("Connection closed");
+        break;
+      }
+
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        exception = new IOException("Connect timed out after " + CONNECT_DEADLINE + "ms");
+        break;
+      }
+
+      BluetoothSocket tmp = null;
+      ScheduledFuture<?> expiry = null;
+      try {
+        long phaseStartedAt = System.nanoTime();
+        tmp = createSocket(mDevice, strategy);
+        metrics.recordSince(ServiceMetrics.CREATE_SOCKET, phaseStartedAt);
+        if (tmp == null) {
+          continue;
+        }
+        mSocket = tmp;
+
+        // This is a blocking call and will only return on a
+        // successful connection or an exception
+        phaseStartedAt = System.nanoTime();
+        expiry = closeAt(tmp, remaining);
+        tmp.connect();
+        expiry.cancel(false);
+        metrics.recordSince(ServiceMetrics.SOCKET_CONNECT, phaseStartedAt);
+
+        mStrategyCache.succeeded(getAddress(), strategy, System.currentTimeMillis() - connectStartedAt);
+        return;
+      } catch (Exception e) {
+        if (expiry != null) {
+          expiry.cancel(false);
+        }
+        Log.e(TAG, "connect with strategy " + strategy + " failed:", e);
+
+        if (System.currentTimeMillis() >= deadline) {
+          exception = new IOException("Connect timed out after " + CONNECT_DEADLINE + "ms", e);
+        } else {
+          exception = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+        }
+
+        // an unreachable device says nothing about the strategy, it is kept
+        boolean unreachable = isUnreachable(exception);
+        if (!unreachable) {
+          mStrategyCache.failed(getAddress(), strategy);
+        }
+
+        // Close the socket
+        if (tmp != null) {
+          try {
+            tmp.close();
+          } catch (Exception e2) {
+            Log.e(TAG, "unable to close() socket during connection failure", e2);
+          }
+        }
+
+        if (unreachable) {
+          Log.w(TAG, getAddress() + " is not reachable, not trying the other strategies");
+          break;
+        }
+      }
+    }
+
+    throw exception != null ? exception : new IOException("Unable to create socket");
+  }
+
+  /**
+   * Whether the device did not answer at all, e.g. it is off or out of range,
+   * rather than refusing the channel of the strategy
+   */
+  static boolean isUnreachable(IOException e) {
+    String message = e.getMessage();
+    if (message == null) {
+      return false;
+    }
+    // "read failed, socket might closed or timeout" is also reported for refused channels, so only these
+    message = message.toLowerCase(Locale.ROOT);
+    return message.contains("timed out") || message.contains("page timeout") || message.contains("host is down");
+  }
+
+  /**
+   * Close the socket after the delay, aborting its connect()
+   */
+  private ScheduledFuture<?> closeAt(final BluetoothSocket socket, long delay) {
+    return sDeadlines.schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          Log.e(TAG, "close() of socket at the connect deadline failed", e);
+        }
+      }
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Create a socket for the device with the given strategy
+   *
+   * @param strategy RFCOMM channel, or ConnectionStrategyCache.SERVICE_RECORD
+   */
+  @SuppressLint("MissingPermission")
+  private static BluetoothSocket createSocket(BluetoothDevice device, int strategy) throws Exception {
+    if (strategy == ConnectionStrategyCache.SERVICE_RECORD) {
+      return device.createRfcommSocketToServiceRecord(MY_UUID);
+    }
+    return (BluetoothSocket) device.getClass().getMethod("createRfcommSocket", int.class).invoke(device, strategy);
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return mSocket.getInputStream();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return mSocket.getOutputStream();
+  }
+
+  @Override
+  public void reset() {
+    mClosed = false;
+  }
+
+  @Override
+  public boolean isConnected() {
+    BluetoothSocket socket = mSocket;
+    return socket != null && socket.isConnected();
+  }
+
+  @Override
+  public void close() throws IOException {
+    mClosed = true;
+    closeSocket();
+  }
+
+  private void closeSocket() throws IOException {
+    BluetoothSocket socket = mSocket;
+    if (socket != null) {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package com.bluetoothprinter;
+
+import java.text.Normalizer;
+
+/**
+ * Encodes text into the codepages of the printer, tracking the one selected.
+ * A character missing from the current codepage switches to the first fallback
+ * codepage that has it, so ESC t is only sent when the encoding actually changes.
+ */
+public class CodepageEncoder {
+  private static final int ESC = 0x1B;
+
+  private final Codepage[] fallbacks;
+  private Codepage codepage;
+
+  /**
+   * @param codepage  Codepage selected in the printer
+   * @param fallbacks Codepages the printer supports, tried in order for missing characters
+   */
+  public CodepageEncoder(Codepage codepage, Codepage[] fallbacks) {
+    this.codepage = codepage;
+    this.fallbacks = fallbacks;
+  }
+
+  public Codepage getCodepage() {
+    return codepage;
+  }
+
+  public Codepage[] getFallbacks() {
+    return fallbacks;
+  }
+
+  /**
+   * Select the codepage, sending ESC t only if it is not selected already
+   */
+  public void select(CommandBuffer out, Codepage selected) {
+    if (selected != codepage) {
+      out.write(ESC, 't', selected.getTable());
+      codepage = selected;
+    }
+  }
+
+  public void encode(CommandBuffer out, String text) {
+    text = normalize(text);
+
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      int b = codepage.encode(c);
+
+      if (b < 0) {
+        Codepage other = find(c);
+        if (other != null) {
+          select(out, other);
+          b = other.encode(c);
+        } else {
+          b = Codepage.UNMAPPABLE;
+        }
+      }
+      out.write(b);
+    }
+  }
+
+  /**
+   * Encode without switching codepages, missing characters become '?'
+   */
+  public static byte[] encode(String text, Codepage codepage) {
+    text = normalize(text);
+    byte[] bytes = new byte[text.length()];
+
+    for (int i = 0; i < bytes.length; i++) {
+      int b = codepage.encode(text.charAt(i));
+      bytes[i] = (byte) (b >= 0 ? b : Codepage.UNMAPPABLE);
+    }
+    return bytes;
+  }
+
+  private Codepage find(char c) {
+    for (Codepage fallback : fallbacks) {
+      if (fallback.encode(c) >= 0) {
+        return fallback;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Compose accents typed as separate combining characters, which no codepage has
+   */
+  static String normalize(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) >= 0x300) {
+        return Normalizer.normalize(text, Normalizer.Form.NFC);
+      }
+    }
+    return text;
+  }
+}
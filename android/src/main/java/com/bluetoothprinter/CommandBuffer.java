@@ -0,0 +1,91 @@
+package com.bluetoothprinter;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Growable byte buffer the printer commands are encoded into. Buffers are pooled,
+ * so encoding a document doesn't allocate a new backing array every time.
+ */
+public class CommandBuffer {
+  private static final int INITIAL_CAPACITY = 4096;
+  // larger buffers are left to the garbage collector instead of being pooled
+  private static final int MAX_POOLED_CAPACITY = 256 * 1024;
+  private static final int MAX_POOLED = 4;
+
+  private static final ConcurrentLinkedQueue<CommandBuffer> sPool = new ConcurrentLinkedQueue<CommandBuffer>();
+
+  private byte[] buffer = new byte[INITIAL_CAPACITY];
+  private int size = 0;
+
+  private CommandBuffer() {
+  }
+
+  /**
+   * Take an empty buffer from the pool, call recycle() when done with it
+   */
+  public static CommandBuffer obtain() {
+    CommandBuffer pooled = sPool.poll();
+    return pooled != null ? pooled : new CommandBuffer();
+  }
+
+  public void recycle() {
+    clear();
+    if (buffer.length <= MAX_POOLED_CAPACITY && sPool.size() < MAX_POOLED) {
+      sPool.offer(this);
+    }
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+    }
+  }
+
+  public CommandBuffer write(int b) {
+    ensureCapacity(size + 1);
+    buffer[size++] = (byte) b;
+    return this;
+  }
+
+  public CommandBuffer write(int... bytes) {
+    ensureCapacity(size + bytes.length);
+    for (int b : bytes) {
+      buffer[size++] = (byte) b;
+    }
+    return this;
+  }
+
+  public CommandBuffer write(byte[] bytes) {
+    return write(bytes, 0, bytes.length);
+  }
+
+  public CommandBuffer write(byte[] bytes, int offset, int length) {
+    ensureCapacity(size + length);
+    System.arraycopy(bytes, offset, buffer, size, length);
+    size += length;
+    return this;
+  }
+
+  /**
+   * Write the byte count times
+   */
+  public CommandBuffer repeat(int b, int count) {
+    ensureCapacity(size + count);
+    Arrays.fill(buffer, size, size + count, (byte) b);
+    size += count;
+    return this;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  public byte[] toByteArray() {
+    return Arrays.copyOf(buffer, size);
+  }
+}
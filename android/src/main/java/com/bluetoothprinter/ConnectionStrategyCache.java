@@ -0,0 +1,190 @@
+package com.bluetoothprinter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers, per device address, which way of creating the RFCOMM socket worked last time,
+ * so the next connection tries it first. Entries are kept in the shared preferences,
+ * surviving app restarts, and are dropped after repeated failures.
+ */
+public class ConnectionStrategyCache {
+  private static final String PREFERENCES = "RNBluetoothPrinter.ConnectionStrategy";
+
+  // socket created with createRfcommSocketToServiceRecord, the others are RFCOMM channels
+  public static final int SERVICE_RECORD = 0;
+  public static final int MAX_CHANNEL = 3;
+
+  public static final int MAX_FAILURES = 3;
+
+  private final SharedPreferences preferences;
+  private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+  public static class Entry {
+    private int strategy;
+    private int failures;
+    private long lastConnectTime;
+    private long cachedConnectTime;
+    private int cachedConnects;
+    private long coldConnectTime;
+    private int coldConnects;
+
+    public int getStrategy() {
+      return strategy;
+    }
+
+    public int getFailures() {
+      return failures;
+    }
+
+    public long getLastConnectTime() {
+      return lastConnectTime;
+    }
+
+    /**
+     * Average milliseconds to connect when the cached strategy worked at the first try
+     */
+    public long getAverageCachedConnectTime() {
+      return cachedConnects > 0 ? cachedConnectTime / cachedConnects : 0;
+    }
+
+    /**
+     * Average milliseconds to connect when the strategy had to be found
+     */
+    public long getAverageColdConnectTime() {
+      return coldConnects > 0 ? coldConnectTime / coldConnects : 0;
+    }
+
+    private String encode() {
+      return strategy + "|" + failures + "|" + lastConnectTime + "|" + cachedConnectTime + "|" + cachedConnects + "|" + coldConnectTime + "|" + coldConnects;
+    }
+
+    @Nullable
+    private static Entry decode(String value) {
+      String[] parts = value.split("\\|");
+      if (parts.length != 7) {
+        return null;
+      }
+
+      try {
+        Entry entry = new Entry();
+        entry.strategy = Integer.parseInt(parts[0]);
+        entry.failures = Integer.parseInt(parts[1]);
+        entry.lastConnectTime = Long.parseLong(parts[2]);
+        entry.cachedConnectTime = Long.parseLong(parts[3]);
+        entry.cachedConnects = Integer.parseInt(parts[4]);
+        entry.coldConnectTime = Long.parseLong(parts[5]);
+        entry.coldConnects = Integer.parseInt(parts[6]);
+        return entry;
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+  }
+
+  public ConnectionStrategyCache(Context context) {
+    preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+
+    for (Map.Entry<String, ?> stored : preferences.getAll().entrySet()) {
+      Entry entry = stored.getValue() instanceof String ? Entry.decode((String) stored.getValue()) : null;
+      if (entry != null) {
+        entries.put(stored.getKey(), entry);
+      }
+    }
+  }
+
+  /**
+   * Strategies to try for a device, the cached one first, then channels 1 to 3 and the service record
+   */
+  public synchronized List<Integer> strategies(String address) {
+    List<Integer> strategies = new ArrayList<Integer>();
+    Entry entry = entries.get(address);
+
+    if (entry != null) {
+      strategies.add(entry.strategy);
+    }
+
+    for (int channel = 1; channel <= MAX_CHANNEL; channel++) {
+      if (!strategies.contains(channel)) {
+        strategies.add(channel);
+      }
+    }
+
+    if (!strategies.contains(SERVICE_RECORD)) {
+      strategies.add(SERVICE_RECORD);
+    }
+
+    return strategies;
+  }
+
+  @Nullable
+  public synchronized Entry get(String address) {
+    return entries.get(address);
+  }
+
+  public synchronized Map<String, Entry> getAll() {
+    return new HashMap<String, Entry>(entries);
+  }
+
+  /**
+   * Record the strategy that connected to the device
+   *
+   * @param duration Milliseconds taken by the whole connection
+   */
+  public synchronized void succeeded(String address, int strategy, long duration) {
+    Entry entry = entries.get(address);
+    boolean cached = entry != null && entry.strategy == strategy;
+
+    if (entry == null) {
+      entry = new Entry();
+      entries.put(address, entry);
+    }
+
+    entry.strategy = strategy;
+    entry.failures = 0;
+    entry.lastConnectTime = duration;
+
+    if (cached) {
+      entry.cachedConnectTime += duration;
+      entry.cachedConnects++;
+    } else {
+      entry.coldConnectTime += duration;
+      entry.coldConnects++;
+    }
+
+    preferences.edit().putString(address, entry.encode()).apply();
+  }
+
+  /**
+   * Record that the cached strategy of the device did not connect,
+   * forgetting it after MAX_FAILURES in a row
+   */
+  public synchronized void failed(String address, int strategy) {
+    Entry entry = entries.get(address);
+
+    if (entry == null || entry.strategy != strategy) {
+      return;
+    }
+
+    entry.failures++;
+
+    if (entry.failures >= MAX_FAILURES) {
+      entries.remove(address);
+      preferences.edit().remove(address).apply();
+    } else {
+      preferences.edit().putString(address, entry.encode()).apply();
+    }
+  }
+
+  public synchronized void clear(String address) {
+    entries.remove(address);
+    preferences.edit().remove(address).apply();
+  }
+}
@@ -0,0 +1,77 @@
+package com.bluetoothprinter;
+
+import android.bluetooth.BluetoothClass;
+
+import androidx.annotation.Nullable;
+
+import java.util.regex.Pattern;
+
+/**
+ * How a scan reports the devices it finds: only printers, in batches instead of
+ * one event per device, and stopping as soon as the printer looked for is found.
+ */
+public class DiscoveryOptions {
+  public static final DiscoveryOptions DEFAULT = new DiscoveryOptions(false, 0, null, null);
+  // minor class bit of printers in the imaging major class, the SDK has no constant for it
+  private static final int MINOR_PRINTER = 0x80;
+
+  private final boolean printersOnly;
+  private final int batchInterval;
+  @Nullable
+  private final String targetAddress;
+  @Nullable
+  private final Pattern targetName;
+
+  /**
+   * @param printersOnly  Whether devices of other classes than printers are skipped
+   * @param batchInterval Milliseconds the found devices are gathered before being sent, 0 to send each one
+   * @param targetAddress Address that stops the scan once found
+   * @param targetName    Name pattern that stops the scan once a device matching it is found
+   */
+  public DiscoveryOptions(boolean printersOnly, int batchInterval, @Nullable String targetAddress, @Nullable Pattern targetName) {
+    this.printersOnly = printersOnly;
+    this.batchInterval = Math.max(0, batchInterval);
+    this.targetAddress = targetAddress;
+    this.targetName = targetName;
+  }
+
+  public boolean isPrintersOnly() {
+    return printersOnly;
+  }
+
+  public int getBatchInterval() {
+    return batchInterval;
+  }
+
+  /**
+   * Whether the device is the one looked for, so the scan can stop
+   */
+  public boolean isTarget(String address, @Nullable String name) {
+    if (targetAddress != null && targetAddress.equalsIgnoreCase(address)) {
+      return true;
+    }
+    return targetName != null && name != null && targetName.matcher(name).find();
+  }
+
+  /**
+   * Whether the class is of a printer. Many printers report no class or an
+   * uncategorized one, those are kept too.
+   */
+  public static boolean isPrinter(@Nullable BluetoothClass bluetoothClass) {
+    if (bluetoothClass == null) {
+      return true;
+    }
+    return isPrinter(bluetoothClass.getMajorDeviceClass(), bluetoothClass.getDeviceClass());
+  }
+
+  /**
+   * @param major       Major class of the device
+   * @param deviceClass Major and minor class of the device
+   */
+  static boolean isPrinter(int major, int deviceClass) {
+    if (major == BluetoothClass.Device.Major.UNCATEGORIZED) {
+      return true;
+    }
+    return major == BluetoothClass.Device.Major.IMAGING && (deviceClass & MINOR_PRINTER) != 0;
+  }
+}
@@ -0,0 +1,259 @@
+package com.bluetoothprinter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reduces gray levels, from 0 (black) to 255 (white), to a 1-bit RasterImage.
+ * Works straight on the primitive arrays, without allocating per pixel. The algorithms
+ * where each dot only depends on its own pixel split the rows between threads.
+ */
+public class Dither {
+  public enum Algorithm {
+    // every dot darker than the threshold is printed
+    THRESHOLD,
+    // the threshold varies over a 8x8 Bayer matrix, keeping a regular pattern
+    BAYER,
+    // the error of each dot is spread to its right and lower neighbours
+    FLOYD_STEINBERG,
+    // spreads only 3/4 of the error, farther, giving more contrast
+    ATKINSON
+  }
+
+  // below this the threads cost more than they save
+  private static final int PARALLEL_MIN_PIXELS = 64 * 1024;
+
+  private static final int[] BAYER_MATRIX = {
+    0, 32, 8, 40, 2, 34, 10, 42,
+    48, 16, 56, 24, 50, 18, 58, 26,
+    12, 44, 4, 36, 14, 46, 6, 38,
+    60, 28, 52, 20, 62, 30, 54, 22,
+    3, 35, 11, 43, 1, 33, 9, 41,
+    51, 19, 59, 27, 49, 17, 57, 25,
+    15, 47, 7, 39, 13, 45, 5, 37,
+    63, 31, 55, 23, 61, 29, 53, 21
+  };
+
+  private static ExecutorService sPool;
+
+  private Dither() {
+  }
+
+  private interface RowTask {
+    void run(int from, int to);
+  }
+
+  /**
+   * @param gray      Gray level of each pixel, row by row. Error diffusion changes it in place.
+   * @param threshold Gray level under which a dot is printed
+   */
+  public static RasterImage apply(final int[] gray, final int width, int height, Algorithm algorithm, final int threshold) {
+    final byte[] data = new byte[RasterImage.bytesPerRow(width) * height];
+
+    switch (algorithm) {
+      case BAYER:
+        forRows(width, height, new RowTask() {
+          @Override
+          public void run(int from, int to) {
+            bayer(gray, width, from, to, threshold, data);
+          }
+        });
+        break;
+      case FLOYD_STEINBERG:
+        floydSteinberg(gray, width, height, threshold, data);
+        break;
+      case ATKINSON:
+        atkinson(gray, width, height, threshold, data);
+        break;
+      default:
+        forRows(width, height, new RowTask() {
+          @Override
+          public void run(int from, int to) {
+            threshold(gray, width, from, to, threshold, data);
+          }
+        });
+        break;
+    }
+
+    return new RasterImage(width, height, data);
+  }
+
+  /**
+   * Same as apply, for 8-bit gray levels
+   */
+  public static RasterImage apply(byte[] gray, int width, int height, Algorithm algorithm, int threshold) {
+    int[] levels = new int[gray.length];
+    for (int i = 0; i < gray.length; i++) {
+      levels[i] = gray[i] & 0xFF;
+    }
+    return apply(levels, width, height, algorithm, threshold);
+  }
+
+  /**
+   * Run the task over stripes of rows in the pool, or in the calling thread for small images
+   */
+  private static void forRows(int width, int height, final RowTask task) {
+    int workers = Runtime.getRuntime().availableProcessors();
+
+    if (workers < 2 || (long) width * height < PARALLEL_MIN_PIXELS) {
+      task.run(0, height);
+      return;
+    }
+
+    int step = (height + workers - 1) / workers;
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+
+    for (int from = 0; from < height; from += step) {
+      final int start = from;
+      final int end = Math.min(height, from + step);
+      futures.add(pool().submit(new Runnable() {
+        @Override
+        public void run() {
+          task.run(start, end);
+        }
+      }));
+    }
+
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while dithering", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Dithering failed", e.getCause());
+    }
+  }
+
+  private static synchronized ExecutorService pool() {
+    if (sPool == null) {
+      sPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "DitherThread");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return sPool;
+  }
+
+  private static void threshold(int[] gray, int width, int from, int to, int threshold, byte[] data) {
+    int bytesPerRow = RasterImage.bytesPerRow(width);
+
+    for (int y = from; y < to; y++) {
+      int row = y * width;
+      int out = y * bytesPerRow;
+
+      for (int x = 0; x < width; x++) {
+        if (gray[row + x] < threshold) {
+          data[out + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+        }
+      }
+    }
+  }
+
+  private static void bayer(int[] gray, int width, int from, int to, int threshold, byte[] data) {
+    int bytesPerRow = RasterImage.bytesPerRow(width);
+
+    for (int y = from; y < to; y++) {
+      int row = y * width;
+      int out = y * bytesPerRow;
+      int matrixRow = (y & 7) << 3;
+
+      for (int x = 0; x < width; x++) {
+        // matrix values from 0 to 63 spread the threshold over -128..124 around the given one
+        int level = threshold + (BAYER_MATRIX[matrixRow + (x & 7)] << 2) - 128;
+        if (gray[row + x] < level) {
+          data[out + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+        }
+      }
+    }
+  }
+
+  private static void floydSteinberg(int[] gray, int width, int height, int threshold, byte[] data) {
+    int bytesPerRow = RasterImage.bytesPerRow(width);
+
+    for (int y = 0; y < height; y++) {
+      int row = y * width;
+      int out = y * bytesPerRow;
+      boolean last = y == height - 1;
+
+      for (int x = 0; x < width; x++) {
+        int i = row + x;
+        int value = gray[i];
+        int error;
+
+        if (value < threshold) {
+          data[out + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+          error = value;
+        } else {
+          error = value - 255;
+        }
+
+        if (x + 1 < width) {
+          gray[i + 1] += (error * 7) >> 4;
+        }
+        if (!last) {
+          if (x > 0) {
+            gray[i + width - 1] += (error * 3) >> 4;
+          }
+          gray[i + width] += (error * 5) >> 4;
+          if (x + 1 < width) {
+            gray[i + width + 1] += error >> 4;
+          }
+        }
+      }
+    }
+  }
+
+  private static void atkinson(int[] gray, int width, int height, int threshold, byte[] data) {
+    int bytesPerRow = RasterImage.bytesPerRow(width);
+
+    for (int y = 0; y < height; y++) {
+      int row = y * width;
+      int out = y * bytesPerRow;
+      boolean next = y + 1 < height;
+      boolean second = y + 2 < height;
+
+      for (int x = 0; x < width; x++) {
+        int i = row + x;
+        int value = gray[i];
+        int error;
+
+        if (value < threshold) {
+          data[out + (x >> 3)] |= (byte) (0x80 >> (x & 7));
+          error = value >> 3;
+        } else {
+          error = (value - 255) >> 3;
+        }
+
+        if (x + 1 < width) {
+          gray[i + 1] += error;
+        }
+        if (x + 2 < width) {
+          gray[i + 2] += error;
+        }
+        if (next) {
+          if (x > 0) {
+            gray[i + width - 1] += error;
+          }
+          gray[i + width] += error;
+          if (x + 1 < width) {
+            gray[i + width + 1] += error;
+          }
+        }
+        if (second) {
+          gray[i + 2 * width] += error;
+        }
+      }
+    }
+  }
+}
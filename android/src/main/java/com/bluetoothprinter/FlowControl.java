@@ -0,0 +1,95 @@
+package com.bluetoothprinter;
+
+import java.io.IOException;
+
+/**
+ * Paces the chunks written to a connection according to its WriteOptions.
+ * The XON/XOFF state is fed by the bytes read from the device.
+ */
+public class FlowControl {
+  public static final byte XON = 0x11;
+  public static final byte XOFF = 0x13;
+
+  private volatile WriteOptions options;
+  private boolean paused = false;
+
+  public FlowControl(WriteOptions options) {
+    this.options = options;
+  }
+
+  public WriteOptions getOptions() {
+    return options;
+  }
+
+  public void setOptions(WriteOptions options) {
+    this.options = options;
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+
+  /**
+   * Look for XON/XOFF in the bytes received from the device, the last one wins
+   */
+  public void onRead(byte[] buffer, int offset, int length) {
+    for (int i = offset + length - 1; i >= offset; i--) {
+      if (buffer[i] == XON || buffer[i] == XOFF) {
+        synchronized (this) {
+          paused = buffer[i] == XOFF;
+          notifyAll();
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Wait until the chunk starting at the given offset of a job can be sent
+   *
+   * @param offset    Position of the chunk in the job
+   * @param startedAt System.nanoTime() of when the job started to be written
+   */
+  public void awaitChunk(int offset, long startedAt) throws InterruptedException, IOException {
+    WriteOptions current = options;
+
+    switch (current.getPacing()) {
+      case FIXED_DELAY: {
+        if (offset > 0 && current.getChunkDelay() > 0) {
+          Thread.sleep(current.getChunkDelay());
+        }
+        break;
+      }
+
+      case BYTES_PER_SECOND: {
+        if (current.getBytesPerSecond() > 0) {
+          long dueAt = startedAt + offset * 1000000000L / current.getBytesPerSecond();
+          long wait = (dueAt - System.nanoTime()) / 1000000L;
+          if (wait > 0) {
+            Thread.sleep(wait);
+          }
+        }
+        break;
+      }
+
+      case XON_XOFF: {
+        awaitXon(current.getXoffTimeout());
+        break;
+      }
+
+      default: {
+      }
+    }
+  }
+
+  private synchronized void awaitXon(int timeout) throws InterruptedException, IOException {
+    long deadline = System.currentTimeMillis() + timeout;
+
+    while (paused && options.getPacing() == WriteOptions.Pacing.XON_XOFF) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new IOException("Device did not send XON after " + timeout + "ms");
+      }
+      wait(remaining);
+    }
+  }
+}
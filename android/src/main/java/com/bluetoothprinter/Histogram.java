@@ -0,0 +1,77 @@
+package com.bluetoothprinter;
+
+/**
+ * Counts values into fixed buckets, keeping count, sum, min and max.
+ */
+public class Histogram {
+  // milliseconds
+  public static final double[] TIME_BOUNDS = {0.5, 1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+  // bytes per second
+  public static final double[] THROUGHPUT_BOUNDS = {1000, 5000, 10000, 25000, 50000, 100000, 200000, 500000, 1000000, 5000000};
+
+  private final double[] bounds;
+  // one bucket per bound plus one for the values above the last bound
+  private final long[] buckets;
+  private long count;
+  private double sum;
+  private double min;
+  private double max;
+
+  public Histogram(double[] bounds) {
+    this.bounds = bounds;
+    this.buckets = new long[bounds.length + 1];
+    reset();
+  }
+
+  public synchronized void record(double value) {
+    int i = 0;
+    while (i < bounds.length && value > bounds[i]) {
+      i++;
+    }
+    buckets[i]++;
+
+    count++;
+    sum += value;
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+  }
+
+  public synchronized void reset() {
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = 0;
+    }
+    count = 0;
+    sum = 0;
+    min = Double.MAX_VALUE;
+    max = 0;
+  }
+
+  public synchronized Snapshot snapshot() {
+    return new Snapshot(bounds, buckets.clone(), count, sum, count > 0 ? min : 0, max);
+  }
+
+  /**
+   * Copy of the histogram values at a point in time
+   */
+  public static class Snapshot {
+    public final double[] bounds;
+    public final long[] buckets;
+    public final long count;
+    public final double sum;
+    public final double min;
+    public final double max;
+
+    Snapshot(double[] bounds, long[] buckets, long count, double sum, double min, double max) {
+      this.bounds = bounds;
+      this.buckets = buckets;
+      this.count = count;
+      this.sum = sum;
+      this.min = min;
+      this.max = max;
+    }
+
+    public double mean() {
+      return count > 0 ? sum / count : 0;
+    }
+  }
+}
@@ -0,0 +1,39 @@
+package com.bluetoothprinter;
+
+/**
+ * How an image is turned into raster bytes: the dithering used to reduce it
+ * to black and white, and the height of the GS v 0 bands it is split into.
+ */
+public class ImageOptions {
+  public static final int DEFAULT_THRESHOLD = 128;
+  public static final int DEFAULT_BAND_HEIGHT = 128;
+
+  public static final ImageOptions DEFAULT = new ImageOptions(Dither.Algorithm.FLOYD_STEINBERG, DEFAULT_THRESHOLD, DEFAULT_BAND_HEIGHT);
+
+  private final Dither.Algorithm dithering;
+  private final int threshold;
+  private final int bandHeight;
+
+  /**
+   * @param dithering  How the gray levels are reduced to black and white
+   * @param threshold  Gray level, from 0 to 255, under which a dot is printed
+   * @param bandHeight Rows per GS v 0 command, so printers with small buffers can keep up
+   */
+  public ImageOptions(Dither.Algorithm dithering, int threshold, int bandHeight) {
+    this.dithering = dithering;
+    this.threshold = Math.max(0, Math.min(255, threshold));
+    this.bandHeight = Math.max(1, Math.min(RasterEncoder.MAX_BAND_HEIGHT, bandHeight));
+  }
+
+  public Dither.Algorithm getDithering() {
+    return dithering;
+  }
+
+  public int getThreshold() {
+    return threshold;
+  }
+
+  public int getBandHeight() {
+    return bandHeight;
+  }
+}
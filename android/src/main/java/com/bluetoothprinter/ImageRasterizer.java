@@ -0,0 +1,120 @@
+package com.bluetoothprinter;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes an image given as base64 or uri, scales it to the printer width
+ * and reduces it to a 1-bit RasterImage.
+ */
+public class ImageRasterizer {
+  private ImageRasterizer() {
+  }
+
+  /**
+   * @param source Image as base64, with or without a data: prefix, as a content://, file:// uri or a file path
+   * @param width  Width in dots to print the image, 0 to keep the image width
+   */
+  public static RasterImage rasterize(Context context, String source, int width, ImageOptions options) throws IOException {
+    Bitmap bitmap = decode(read(context, source), width);
+
+    try {
+      if (width > 0 && bitmap.getWidth() != width) {
+        int height = Math.max(1, Math.round((float) bitmap.getHeight() * width / bitmap.getWidth()));
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, width, height, true);
+        bitmap.recycle();
+        bitmap = scaled;
+      }
+
+      int[] gray = luminance(bitmap);
+      return Dither.apply(gray, bitmap.getWidth(), bitmap.getHeight(), options.getDithering(), options.getThreshold());
+    } finally {
+      bitmap.recycle();
+    }
+  }
+
+  private static byte[] read(Context context, String source) throws IOException {
+    if (source.startsWith("data:")) {
+      source = source.substring(source.indexOf(',') + 1);
+    } else if (source.contains("://") || source.startsWith("/")) {
+      InputStream in = source.startsWith("/")
+        ? new FileInputStream(source)
+        : context.getContentResolver().openInputStream(Uri.parse(source));
+
+      if (in == null) {
+        throw new IOException("Unable to open " + source);
+      }
+
+      try {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+          out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+      } finally {
+        in.close();
+      }
+    }
+
+    try {
+      return Base64.decode(source, Base64.DEFAULT);
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid base64 image", e);
+    }
+  }
+
+  /**
+   * Decode the image, subsampled as much as possible while still being at least as wide as width
+   */
+  private static Bitmap decode(byte[] data, int width) throws IOException {
+    BitmapFactory.Options bounds = new BitmapFactory.Options();
+    bounds.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+
+    if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+      throw new IOException("Unable to decode the image");
+    }
+
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    options.inSampleSize = 1;
+    while (width > 0 && bounds.outWidth / (options.inSampleSize * 2) >= width) {
+      options.inSampleSize *= 2;
+    }
+
+    Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    if (bitmap == null) {
+      throw new IOException("Unable to decode the image");
+    }
+    return bitmap;
+  }
+
+  /**
+   * Gray level of each pixel, with transparent pixels blended over white paper
+   */
+  private static int[] luminance(Bitmap bitmap) {
+    int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    int[] pixels = new int[width * height];
+    bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+    for (int i = 0; i < pixels.length; i++) {
+      int pixel = pixels[i];
+      int alpha = (pixel >>> 24) & 0xFF;
+      int gray = (((pixel >> 16) & 0xFF) * 299 + ((pixel >> 8) & 0xFF) * 587 + (pixel & 0xFF) * 114) / 1000;
+      pixels[i] = 255 - (255 - gray) * alpha / 255;
+    }
+
+    return pixels;
+  }
+}
@@ -0,0 +1,83 @@
+package com.bluetoothprinter;
+
+/**
+ * Fixed size ring buffer with the bytes received from the device.
+ * When full, the oldest bytes are overwritten by the new ones.
+ */
+public class InboundBuffer {
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  private final byte[] buffer;
+  private int head = 0; // position of the oldest byte
+  private int size = 0;
+
+  public InboundBuffer(int capacity) {
+    buffer = new byte[Math.max(1, capacity)];
+  }
+
+  public int capacity() {
+    return buffer.length;
+  }
+
+  public synchronized int available() {
+    return size;
+  }
+
+  /**
+   * Append bytes to the buffer, dropping the oldest ones if there is no room
+   */
+  public synchronized void write(byte[] src, int offset, int length) {
+    if (length >= buffer.length) {
+      // only the last bytes fit
+      System.arraycopy(src, offset + length - buffer.length, buffer, 0, buffer.length);
+      head = 0;
+      size = buffer.length;
+      notifyAll();
+      return;
+    }
+
+    int tail = (head + size) % buffer.length;
+    int first = Math.min(length, buffer.length - tail);
+    System.arraycopy(src, offset, buffer, tail, first);
+    System.arraycopy(src, offset + first, buffer, 0, length - first);
+
+    int overflow = size + length - buffer.length;
+    if (overflow > 0) {
+      head = (head + overflow) % buffer.length;
+      size = buffer.length;
+    } else {
+      size += length;
+    }
+    notifyAll();
+  }
+
+  /**
+   * Move up to length bytes from the buffer into dst
+   *
+   * @return how many bytes were read
+   */
+  public synchronized int read(byte[] dst, int offset, int length) {
+    int count = Math.min(length, size);
+    int first = Math.min(count, buffer.length - head);
+    System.arraycopy(buffer, head, dst, offset, first);
+    System.arraycopy(buffer, 0, dst, offset + first, count - first);
+
+    head = (head + count) % buffer.length;
+    size -= count;
+    return count;
+  }
+
+  /**
+   * Move every available byte into a new array
+   */
+  public synchronized byte[] readAll() {
+    byte[] dst = new byte[size];
+    read(dst, 0, dst.length);
+    return dst;
+  }
+
+  public synchronized void clear() {
+    head = 0;
+    size = 0;
+  }
+}
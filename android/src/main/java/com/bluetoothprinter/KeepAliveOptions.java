@@ -0,0 +1,68 @@
+package com.bluetoothprinter;
+
+/**
+ * Opt-in keep-alive of the connections: idle connections are probed with a
+ * status request, and lost connections are reconnected with exponential backoff.
+ */
+public class KeepAliveOptions {
+  public static final KeepAliveOptions DISABLED = new KeepAliveOptions(false, 30000, 2000, 500, 30000, 0);
+
+  private final boolean enabled;
+  private final int probeInterval;
+  private final int probeTimeout;
+  private final int initialBackoff;
+  private final int maxBackoff;
+  private final int maxAttempts;
+
+  /**
+   * @param enabled        Whether lost connections are reconnected and idle ones probed
+   * @param probeInterval  Milliseconds without activity before a connection is probed, 0 to not probe
+   * @param probeTimeout   Milliseconds to wait for the reply of the probe
+   * @param initialBackoff Milliseconds to wait before the first reconnect attempt
+   * @param maxBackoff     Max milliseconds to wait between reconnect attempts
+   * @param maxAttempts    Reconnect attempts before giving up, 0 to never give up
+   */
+  public KeepAliveOptions(boolean enabled, int probeInterval, int probeTimeout, int initialBackoff, int maxBackoff, int maxAttempts) {
+    this.enabled = enabled;
+    this.probeInterval = Math.max(0, probeInterval);
+    this.probeTimeout = Math.max(1, probeTimeout);
+    this.initialBackoff = Math.max(0, initialBackoff);
+    this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+    this.maxAttempts = Math.max(0, maxAttempts);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public int getProbeInterval() {
+    return probeInterval;
+  }
+
+  public int getProbeTimeout() {
+    return probeTimeout;
+  }
+
+  public int getInitialBackoff() {
+    return initialBackoff;
+  }
+
+  public int getMaxBackoff() {
+    return maxBackoff;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Milliseconds to wait before the given reconnect attempt, doubling at each one
+   */
+  public long backoff(int attempt) {
+    long delay = initialBackoff;
+    for (int i = 1; i < attempt && delay < maxBackoff; i++) {
+      delay *= 2;
+    }
+    return Math.min(delay, maxBackoff);
+  }
+}
@@ -0,0 +1,296 @@
+package com.bluetoothprinter;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * In-memory printer, keeping the bytes written to it and replying with the bytes given to receive().
+ * It can simulate slow, lossy or stalling printers and connections that fail or drop,
+ * so the queueing, chunking and reconnect behaviour can run on a plain JVM.
+ */
+public class MemoryTransport implements PrinterTransport {
+  private final String mAddress;
+  private final Object mLock = new Object();
+  private final ByteArrayOutputStream mWritten = new ByteArrayOutputStream();
+  private final InboundBuffer mInbound = new InboundBuffer(InboundBuffer.DEFAULT_CAPACITY);
+  private final Random mRandom;
+
+  private boolean mConnected = false;
+  // closed by the connection, the next open fails until reset
+  private boolean mClosed = false;
+  private boolean mStalled = false;
+  private int mConnectFailures = 0;
+  private long mConnectDelay = 0;
+  private int mBytesPerSecond = 0;
+  private double mLossRate = 0;
+  private long mDroppedBytes = 0;
+  private int mOpenCount = 0;
+  // changed by every disconnect, to abort the delays in progress
+  private int mGeneration = 0;
+
+  public MemoryTransport(String address) {
+    this(address, new Random());
+  }
+
+  /**
+   * @param random Source of the simulated losses, seeded to make them reproducible
+   */
+  public MemoryTransport(String address, Random random) {
+    mAddress = address;
+    mRandom = random;
+  }
+
+  @Override
+  public String getAddress() {
+    return mAddress;
+  }
+
+  @Nullable
+  @Override
+  public String getName() {
+    return mAddress;
+  }
+
+  /**
+   * Time each open() takes before connecting
+   */
+  public void setConnectDelay(long connectDelay) {
+    synchronized (mLock) {
+      mConnectDelay = connectDelay;
+    }
+  }
+
+  /**
+   * Make the next opens fail
+   */
+  public void failNextConnects(int count) {
+    synchronized (mLock) {
+      mConnectFailures = count;
+    }
+  }
+
+  /**
+   * Limit the write speed, 0 to write without delay
+   */
+  public void setBytesPerSecond(int bytesPerSecond) {
+    synchronized (mLock) {
+      mBytesPerSecond = bytesPerSecond;
+    }
+  }
+
+  /**
+   * Probability of each write being silently dropped, from 0 to 1
+   */
+  public void setLossRate(double lossRate) {
+    synchronized (mLock) {
+      mLossRate = lossRate;
+    }
+  }
+
+  /**
+   * Block the writes until resume() is called, like a printer that stopped reading
+   */
+  public void stall() {
+    synchronized (mLock) {
+      mStalled = true;
+    }
+  }
+
+  public void resume() {
+    synchronized (mLock) {
+      mStalled = false;
+      mLock.notifyAll();
+    }
+  }
+
+  /**
+   * Bytes sent by the printer, returned by the reads of the connection
+   */
+  public void receive(byte[] data) {
+    synchronized (mLock) {
+      mInbound.write(data, 0, data.length);
+      mLock.notifyAll();
+    }
+  }
+
+  /**
+   * Drop the link as if the printer was turned off, the connection sees it as lost
+   */
+  public void disconnect() {
+    synchronized (mLock) {
+      mConnected = false;
+      mGeneration++;
+      mLock.notifyAll();
+    }
+  }
+
+  /**
+   * Every byte written to the printer since it was created or cleared
+   */
+  public byte[] getWritten() {
+    synchronized (mLock) {
+      return mWritten.toByteArray();
+    }
+  }
+
+  public void clearWritten() {
+    synchronized (mLock) {
+      mWritten.reset();
+    }
+  }
+
+  public long getDroppedBytes() {
+    synchronized (mLock) {
+      return mDroppedBytes;
+    }
+  }
+
+  /**
+   * How many times the transport was opened, successfully or not
+   */
+  public int getOpenCount() {
+    synchronized (mLock) {
+      return mOpenCount;
+    }
+  }
+
+  @Override
+  public void open(ServiceMetrics metrics) throws IOException {
+    long startedAt = System.nanoTime();
+
+    synchronized (mLock) {
+      mOpenCount++;
+      mConnected = false;
+      mInbound.clear();
+
+      if (mClosed) {
+        throw new IOException("Connection closed");
+      }
+
+      if (mConnectDelay > 0 && !sleep(mConnectDelay)) {
+        throw new IOException("Connection closed");
+      }
+
+      if (mConnectFailures > 0) {
+        mConnectFailures--;
+        throw new IOException("Simulated connect failure");
+      }
+
+      mConnected = true;
+    }
+    metrics.recordSince(ServiceMetrics.SOCKET_CONNECT, startedAt);
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return new InputStream() {
+      @Override
+      public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) > 0 ? one[0] & 0xFF : -1;
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        synchronized (mLock) {
+          while (mConnected && mInbound.available() == 0) {
+            waitFor(0);
+          }
+          if (!mConnected) {
+            return -1;
+          }
+          return mInbound.read(buffer, offset, length);
+        }
+      }
+    };
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] buffer, int offset, int length) throws IOException {
+        synchronized (mLock) {
+          while (mConnected && mStalled) {
+            waitFor(0);
+          }
+          if (!mConnected) {
+            throw new IOException("Simulated connection lost");
+          }
+
+          if (mBytesPerSecond > 0 && !sleep(Math.max(1, length * 1000L / mBytesPerSecond))) {
+            throw new IOException("Simulated connection lost");
+          }
+
+          if (mLossRate > 0 && mRandom.nextDouble() < mLossRate) {
+            mDroppedBytes += length;
+            return;
+          }
+          mWritten.write(buffer, offset, length);
+        }
+      }
+    };
+  }
+
+  /**
+   * Wait on the lock, 0 waits until notified
+   */
+  private void waitFor(long millis) throws IOException {
+    try {
+      mLock.wait(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted", e);
+    }
+  }
+
+  /**
+   * Wait on the lock for the given time
+   *
+   * @return false if disconnected meanwhile
+   */
+  private boolean sleep(long millis) throws IOException {
+    int generation = mGeneration;
+    long deadline = System.currentTimeMillis() + millis;
+
+    for (long left = millis; left > 0; left = deadline - System.currentTimeMillis()) {
+      waitFor(left);
+      if (generation != mGeneration) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean isConnected() {
+    synchronized (mLock) {
+      return mConnected;
+    }
+  }
+
+  @Override
+  public void reset() {
+    synchronized (mLock) {
+      mClosed = false;
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (mLock) {
+      mClosed = true;
+    }
+    disconnect();
+  }
+}
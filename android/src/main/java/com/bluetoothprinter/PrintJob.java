@@ -0,0 +1,113 @@
+package com.bluetoothprinter;
+
+/**
+ * A block of bytes submitted to be written to the connected device.
+ * It can be made of several parts, written one after the other without
+ * being copied into a single array first.
+ */
+public class PrintJob {
+  // order in which the queue writes the jobs, a job being written is never interrupted
+  public enum Priority {
+    HIGH,
+    NORMAL,
+    LOW
+  }
+
+  private final int id;
+  private final byte[][] parts;
+  private final int size;
+  private final long createdAt;
+  private final Priority priority;
+  // who submitted the job, the queue takes turns between sources of the same priority
+  private final String source;
+  // bytes of the job already written to the device
+  private volatile int written = 0;
+  private boolean cancelled = false;
+  // the last chunk is being written, it is too late to cancel
+  private boolean finishing = false;
+
+  public PrintJob(int id, byte[] data) {
+    this(id, new byte[][]{data});
+  }
+
+  public PrintJob(int id, byte[][] parts) {
+    this(id, parts, Priority.NORMAL, "");
+  }
+
+  public PrintJob(int id, byte[][] parts, Priority priority, String source) {
+    this.id = id;
+    this.parts = parts;
+    this.createdAt = System.currentTimeMillis();
+    this.priority = priority;
+    this.source = source;
+
+    int total = 0;
+    for (byte[] part : parts) {
+      total += part.length;
+    }
+    this.size = total;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public byte[][] getParts() {
+    return parts;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  public long getCreatedAt() {
+    return createdAt;
+  }
+
+  public Priority getPriority() {
+    return priority;
+  }
+
+  public String getSource() {
+    return source;
+  }
+
+  public int getWritten() {
+    return written;
+  }
+
+  void setWritten(int written) {
+    this.written = written;
+  }
+
+  /**
+   * Stop writing the job at the next chunk, the printer is then reset
+   *
+   * @return false when the last chunk is already being written, the job then completes
+   */
+  public synchronized boolean cancel() {
+    if (finishing) {
+      return false;
+    }
+    cancelled = true;
+    return true;
+  }
+
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Called by the writer before each chunk
+   *
+   * @param last Whether the chunk ends the job, it can't be cancelled after that
+   * @return false when the job was cancelled and the chunk must not be written
+   */
+  synchronized boolean claimChunk(boolean last) {
+    if (cancelled) {
+      return false;
+    }
+    finishing = last;
+    return true;
+  }
+}
@@ -0,0 +1,404 @@
+package com.bluetoothprinter;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the print jobs, kept in segment files so jobs survive the app
+ * being killed. A job is appended before it is queued and marked done once it was
+ * written, the jobs not marked done are replayed when their printer connects again.
+ * Each record ends with a CRC, a record cut by a crash is dropped when the journal is
+ * opened. Segments are deleted from the oldest once all their jobs are done.
+ */
+public class PrintJournal {
+  private static final String TAG = "RNBluetoothPrinter";
+
+  public static final long DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+  private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+
+  private static final int RECORD_APPEND = 1;
+  private static final int RECORD_DONE = 2;
+
+  /**
+   * A job not marked done yet, its bytes stay in the segment file
+   */
+  public static class Entry {
+    private final int jobId;
+    private final String address;
+    private final long createdAt;
+    private final int size;
+    private final long segment;
+    private final long offset;
+    // whether the job is in a print queue, so it is not replayed twice
+    private boolean queued;
+
+    Entry(int jobId, String address, long createdAt, int size, long segment, long offset, boolean queued) {
+      this.jobId = jobId;
+      this.address = address;
+      this.createdAt = createdAt;
+      this.size = size;
+      this.segment = segment;
+      this.offset = offset;
+      this.queued = queued;
+    }
+
+    public int getJobId() {
+      return jobId;
+    }
+
+    public String getAddress() {
+      return address;
+    }
+
+    public long getCreatedAt() {
+      return createdAt;
+    }
+
+    public int getSize() {
+      return size;
+    }
+  }
+
+  private final File directory;
+  private final long segmentSize;
+  // pending jobs in the order they were appended
+  private final Map<Integer, Entry> entries = new LinkedHashMap<Integer, Entry>();
+  // pending jobs of each segment, from the oldest segment
+  private final TreeMap<Long, Integer> segmentJobs = new TreeMap<Long, Integer>();
+  private int maxJobId = 0;
+
+  private long activeSegment;
+  private FileOutputStream activeStream;
+  private FileChannel activeChannel;
+
+  /**
+   * Open the journal in the directory, reading the jobs left pending by the last run
+   */
+  public PrintJournal(File directory, long segmentSize) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create the journal directory " + directory);
+    }
+
+    long last = 0;
+    for (long segment : listSegments()) {
+      recover(segment);
+      last = segment;
+    }
+
+    deleteDoneSegments();
+    openSegment(last + 1);
+  }
+
+  /**
+   * Append the job, written to the disk before returning
+   */
+  public synchronized void append(String address, PrintJob job) throws IOException {
+    checkOpen();
+    ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+    DataOutputStream out = new DataOutputStream(header);
+    out.writeByte(RECORD_APPEND);
+    out.writeInt(job.getId());
+    out.writeLong(job.getCreatedAt());
+    out.writeUTF(address);
+    out.writeInt(job.getSize());
+
+    CRC32 crc = new CRC32();
+    crc.update(header.toByteArray());
+    for (byte[] part : job.getParts()) {
+      crc.update(part);
+    }
+
+    long offset = activeChannel.position() + header.size();
+    write(ByteBuffer.wrap(header.toByteArray()));
+    for (byte[] part : job.getParts()) {
+      write(ByteBuffer.wrap(part));
+    }
+    write((ByteBuffer) ByteBuffer.allocate(4).putInt((int) crc.getValue()).flip());
+    activeChannel.force(false);
+
+    entries.put(job.getId(), new Entry(job.getId(), address, job.getCreatedAt(), job.getSize(), activeSegment, offset, true));
+    addSegmentJob(activeSegment, 1);
+    maxJobId = Math.max(maxJobId, job.getId());
+
+    if (activeChannel.position() >= segmentSize) {
+      closeSegment();
+      openSegment(activeSegment + 1);
+    }
+  }
+
+  /**
+   * Mark the job done, it will not be replayed
+   *
+   * @return whether the job was in the journal
+   */
+  public synchronized boolean remove(int jobId) throws IOException {
+    checkOpen();
+    Entry entry = entries.remove(jobId);
+    if (entry == null) {
+      return false;
+    }
+
+    ByteBuffer record = ByteBuffer.allocate(9);
+    record.put((byte) RECORD_DONE).putInt(jobId);
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), 0, 5);
+    record.putInt((int) crc.getValue());
+    record.flip();
+
+    write(record);
+    activeChannel.force(false);
+
+    addSegmentJob(entry.segment, -1);
+    deleteDoneSegments();
+    return true;
+  }
+
+  /**
+   * Keep the job to be replayed, after it failed to be written
+   *
+   * @return whether the job was in the journal
+   */
+  public synchronized boolean release(int jobId) {
+    Entry entry = entries.get(jobId);
+    if (entry == null) {
+      return false;
+    }
+    entry.queued = false;
+    return true;
+  }
+
+  /**
+   * The pending jobs of the printer that are in no queue, marked as queued
+   */
+  public synchronized List<Entry> takeReplay(String address) {
+    List<Entry> replay = new ArrayList<Entry>();
+    for (Entry entry : entries.values()) {
+      if (!entry.queued && entry.address.equals(address)) {
+        entry.queued = true;
+        replay.add(entry);
+      }
+    }
+    return replay;
+  }
+
+  /**
+   * Read the bytes of a pending job back from its segment
+   */
+  public synchronized byte[] read(Entry entry) throws IOException {
+    byte[] data = new byte[entry.size];
+    RandomAccessFile file = new RandomAccessFile(segmentFile(entry.segment), "r");
+    try {
+      file.seek(entry.offset);
+      file.readFully(data);
+    } finally {
+      file.close();
+    }
+    return data;
+  }
+
+  public synchronized List<Entry> getPending() {
+    return new ArrayList<Entry>(entries.values());
+  }
+
+  /**
+   * The highest job id ever appended, so new ids don't reuse the ones of the last run
+   */
+  public synchronized int getMaxJobId() {
+    return maxJobId;
+  }
+
+  public synchronized void close() {
+    try {
+      closeSegment();
+    } catch (IOException e) {
+      Log.e(TAG, "close() of journal segment failed", e);
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (activeChannel == null) {
+      throw new IOException("Journal is closed");
+    }
+  }
+
+  private void write(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      activeChannel.write(buffer);
+    }
+  }
+
+  /**
+   * Read the records of a segment, truncating it at the first incomplete or corrupt record
+   */
+  private void recover(long segment) throws IOException {
+    File file = segmentFile(segment);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    long valid = 0;
+
+    try {
+      while (true) {
+        CRC32 crc = new CRC32();
+        int type = in.read();
+        if (type < 0) {
+          break;
+        }
+
+        if (type == RECORD_APPEND) {
+          int jobId = in.readInt();
+          long createdAt = in.readLong();
+          String address = in.readUTF();
+          int size = in.readInt();
+          if (size < 0 || valid + size > file.length()) {
+            break;
+          }
+          byte[] data = new byte[size];
+          in.readFully(data);
+          int stored = in.readInt();
+
+          ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+          DataOutputStream out = new DataOutputStream(header);
+          out.writeByte(type);
+          out.writeInt(jobId);
+          out.writeLong(createdAt);
+          out.writeUTF(address);
+          out.writeInt(size);
+          crc.update(header.toByteArray());
+          crc.update(data);
+          if (stored != (int) crc.getValue()) {
+            break;
+          }
+
+          entries.put(jobId, new Entry(jobId, address, createdAt, size, segment, valid + header.size(), false));
+          addSegmentJob(segment, 1);
+          maxJobId = Math.max(maxJobId, jobId);
+          valid += header.size() + size + 4;
+        } else if (type == RECORD_DONE) {
+          int jobId = in.readInt();
+          int stored = in.readInt();
+          ByteBuffer record = ByteBuffer.allocate(5).put((byte) type).putInt(jobId);
+          crc.update(record.array());
+          if (stored != (int) crc.getValue()) {
+            break;
+          }
+
+          Entry entry = entries.remove(jobId);
+          if (entry != null) {
+            addSegmentJob(entry.segment, -1);
+          }
+          valid += 9;
+        } else {
+          break;
+        }
+      }
+    } catch (EOFException e) {
+      // the last record was cut while being written
+    } finally {
+      in.close();
+    }
+
+    if (valid < file.length()) {
+      Log.w(TAG, "journal " + file.getName() + " truncated from " + file.length() + " to " + valid + " bytes");
+      RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+      try {
+        truncate.setLength(valid);
+      } finally {
+        truncate.close();
+      }
+    }
+    if (!segmentJobs.containsKey(segment)) {
+      segmentJobs.put(segment, 0);
+    }
+  }
+
+  private void addSegmentJob(long segment, int delta) {
+    Integer count = segmentJobs.get(segment);
+    segmentJobs.put(segment, (count != null ? count : 0) + delta);
+  }
+
+  /**
+   * Delete the oldest segments without pending jobs. Only the oldest, as a later
+   * segment can hold the done records of the jobs of an earlier one.
+   */
+  private void deleteDoneSegments() {
+    Iterator<Map.Entry<Long, Integer>> iterator = segmentJobs.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Long, Integer> segment = iterator.next();
+      if (segment.getValue() > 0 || (activeChannel != null && segment.getKey() == activeSegment)) {
+        break;
+      }
+      if (!segmentFile(segment.getKey()).delete()) {
+        Log.w(TAG, "unable to delete journal segment " + segment.getKey());
+      }
+      iterator.remove();
+    }
+  }
+
+  private void openSegment(long segment) throws IOException {
+    activeSegment = segment;
+    activeStream = new FileOutputStream(segmentFile(segment), true);
+    activeChannel = activeStream.getChannel();
+    if (!segmentJobs.containsKey(segment)) {
+      segmentJobs.put(segment, 0);
+    }
+  }
+
+  private void closeSegment() throws IOException {
+    if (activeStream != null) {
+      activeStream.close();
+      activeStream = null;
+      activeChannel = null;
+    }
+  }
+
+  private File segmentFile(long segment) {
+    return new File(directory, "segment-" + segment + ".log");
+  }
+
+  private long[] listSegments() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return new long[0];
+    }
+
+    List<Long> segments = new ArrayList<Long>();
+    for (File file : files) {
+      Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+      if (matcher.matches()) {
+        segments.add(Long.parseLong(matcher.group(1)));
+      }
+    }
+
+    long[] sorted = new long[segments.size()];
+    for (int i = 0; i < sorted.length; i++) {
+      sorted[i] = segments.get(i);
+    }
+    Arrays.sort(sorted);
+    return sorted;
+  }
+}
@@ -0,0 +1,309 @@
+package com.bluetoothprinter;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Bounded queue of jobs waiting to be written to a connection.
+ * What happens when it is full is defined by the backpressure policy.
+ * Jobs are taken by priority, and in turns between the sources of the same
+ * priority, so one screen submitting many jobs doesn't hold the others back.
+ */
+public class PrintQueue {
+  public static final int DEFAULT_CAPACITY = 32;
+  // jobs taken in a row from a higher priority while lower ones wait, before one of them goes
+  public static final int MAX_PRIORITY_STREAK = 8;
+
+  public enum Backpressure {
+    // wait until there is room in the queue
+    BLOCK,
+    // refuse the new job
+    REJECT,
+    // discard the oldest job waiting in the queue, of the same or a lower priority
+    DROP_OLDEST
+  }
+
+  /**
+   * Jobs of one priority, in a queue per source taken in turns
+   */
+  private static class Lane {
+    // sources in the order of their turn
+    private final LinkedHashMap<String, ArrayDeque<PrintJob>> sources = new LinkedHashMap<String, ArrayDeque<PrintJob>>();
+
+    void add(PrintJob job) {
+      ArrayDeque<PrintJob> jobs = sources.get(job.getSource());
+      if (jobs == null) {
+        jobs = new ArrayDeque<PrintJob>();
+        sources.put(job.getSource(), jobs);
+      }
+      jobs.add(job);
+    }
+
+    /**
+     * Put the job back at the head of its source, whose turn is then the next one
+     */
+    void addFirst(PrintJob job) {
+      ArrayDeque<PrintJob> jobs = sources.remove(job.getSource());
+      if (jobs == null) {
+        jobs = new ArrayDeque<PrintJob>();
+      }
+      jobs.addFirst(job);
+
+      LinkedHashMap<String, ArrayDeque<PrintJob>> others = new LinkedHashMap<String, ArrayDeque<PrintJob>>(sources);
+      sources.clear();
+      sources.put(job.getSource(), jobs);
+      sources.putAll(others);
+    }
+
+    /**
+     * The next job of the source whose turn it is, the source then goes to the end
+     */
+    PrintJob poll() {
+      Iterator<Map.Entry<String, ArrayDeque<PrintJob>>> iterator = sources.entrySet().iterator();
+      if (!iterator.hasNext()) {
+        return null;
+      }
+
+      Map.Entry<String, ArrayDeque<PrintJob>> source = iterator.next();
+      PrintJob job = source.getValue().poll();
+      iterator.remove();
+      if (!source.getValue().isEmpty()) {
+        sources.put(source.getKey(), source.getValue());
+      }
+      return job;
+    }
+
+    boolean remove(PrintJob job) {
+      ArrayDeque<PrintJob> jobs = sources.get(job.getSource());
+      if (jobs == null || !jobs.remove(job)) {
+        return false;
+      }
+      if (jobs.isEmpty()) {
+        sources.remove(job.getSource());
+      }
+      return true;
+    }
+
+    @Nullable
+    PrintJob find(int jobId) {
+      for (ArrayDeque<PrintJob> jobs : sources.values()) {
+        for (PrintJob job : jobs) {
+          if (job.getId() == jobId) {
+            return job;
+          }
+        }
+      }
+      return null;
+    }
+
+    /**
+     * The oldest job of any source
+     */
+    PrintJob pollOldest() {
+      ArrayDeque<PrintJob> oldest = null;
+      for (ArrayDeque<PrintJob> jobs : sources.values()) {
+        if (oldest == null || jobs.peek().getCreatedAt() < oldest.peek().getCreatedAt()) {
+          oldest = jobs;
+        }
+      }
+      if (oldest == null) {
+        return null;
+      }
+
+      PrintJob job = oldest.poll();
+      if (oldest.isEmpty()) {
+        sources.values().remove(oldest);
+      }
+      return job;
+    }
+
+    boolean isEmpty() {
+      return sources.isEmpty();
+    }
+  }
+
+  private final Lane[] lanes = new Lane[PrintJob.Priority.values().length];
+  private int size = 0;
+  private int streak = 0;
+  private int capacity;
+  private Backpressure backpressure;
+  private boolean closed = false;
+
+  public PrintQueue(int capacity, Backpressure backpressure) {
+    this.capacity = Math.max(1, capacity);
+    this.backpressure = backpressure;
+    for (int i = 0; i < lanes.length; i++) {
+      lanes[i] = new Lane();
+    }
+  }
+
+  public synchronized void configure(int capacity, Backpressure backpressure) {
+    this.capacity = Math.max(1, capacity);
+    this.backpressure = backpressure;
+    notifyAll();
+  }
+
+  /**
+   * Add a job to the end of the queue of its priority and source
+   *
+   * @return the job discarded to make room for the new one, the oldest of the lowest priority, if any
+   * @throws RejectedExecutionException when the queue is closed, or full and the policy is REJECT,
+   *                                    or DROP_OLDEST with only jobs of a higher priority waiting
+   */
+  public synchronized PrintJob put(PrintJob job) throws InterruptedException {
+    PrintJob dropped = null;
+
+    while (!closed && size >= capacity) {
+      if (backpressure == Backpressure.REJECT) {
+        throw new RejectedExecutionException("Print queue is full");
+      }
+
+      if (backpressure == Backpressure.DROP_OLDEST) {
+        dropped = pollOldest(job.getPriority());
+        if (dropped == null) {
+          throw new RejectedExecutionException("Print queue is full of jobs of a higher priority");
+        }
+        break;
+      }
+
+      wait();
+    }
+
+    if (closed) {
+      throw new RejectedExecutionException("Print queue is closed");
+    }
+
+    lanes[job.getPriority().ordinal()].add(job);
+    size++;
+    notifyAll();
+    return dropped;
+  }
+
+  /**
+   * Wait for the next job in the queue. Jobs are only ordered between each other,
+   * the job being written always finishes before the next one is taken.
+   *
+   * @return the next job, or null when the queue was closed
+   */
+  public synchronized PrintJob take() throws InterruptedException {
+    while (!closed && size == 0) {
+      wait();
+    }
+
+    PrintJob job = poll();
+    notifyAll();
+    return job;
+  }
+
+  /**
+   * Put a job that was taken but not written back at the head of its priority,
+   * e.g. when the writer that took it was stopped. The capacity is not checked,
+   * the job already had its place in the queue.
+   *
+   * @return false when the queue was closed meanwhile
+   */
+  public synchronized boolean requeue(PrintJob job) {
+    if (closed) {
+      return false;
+    }
+
+    lanes[job.getPriority().ordinal()].addFirst(job);
+    size++;
+    notifyAll();
+    return true;
+  }
+
+  private PrintJob poll() {
+    int first = nextLane(0);
+    if (first < 0) {
+      return null;
+    }
+
+    int lower = nextLane(first + 1);
+    int lane = first;
+
+    if (lower < 0) {
+      streak = 0;
+    } else if (streak >= MAX_PRIORITY_STREAK) {
+      // let a job of a lower priority through
+      lane = lower;
+      streak = 0;
+    } else {
+      streak++;
+    }
+
+    size--;
+    return lanes[lane].poll();
+  }
+
+  /**
+   * Take the job out of the queue, when it is still waiting
+   *
+   * @return the job removed, null when it is not in the queue
+   */
+  @Nullable
+  public synchronized PrintJob remove(int jobId) {
+    for (Lane lane : lanes) {
+      PrintJob job = lane.find(jobId);
+      if (job != null && lane.remove(job)) {
+        size--;
+        notifyAll();
+        return job;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The oldest job of the lowest priority, not above the given one
+   */
+  @Nullable
+  private PrintJob pollOldest(PrintJob.Priority priority) {
+    for (int i = lanes.length - 1; i >= priority.ordinal(); i--) {
+      if (!lanes[i].isEmpty()) {
+        size--;
+        return lanes[i].pollOldest();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The first lane with jobs, from the given priority down
+   */
+  private int nextLane(int from) {
+    for (int i = from; i < lanes.length; i++) {
+      if (!lanes[i].isEmpty()) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Close the queue, refusing new jobs
+   *
+   * @return the jobs that were still waiting to be written
+   */
+  public synchronized List<PrintJob> close() {
+    closed = true;
+    List<PrintJob> pending = new ArrayList<PrintJob>(size);
+    PrintJob job;
+    while ((job = poll()) != null) {
+      pending.add(job);
+    }
+    notifyAll();
+    return pending;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+}
@@ -0,0 +1,29 @@
+package com.bluetoothprinter;
+
+/**
+ * What the firmware of a printer supports. Printers without QR codes or barcodes
+ * get them drawn on the phone and sent as raster images instead of GS ( k / GS k.
+ */
+public class PrinterProfile {
+  public static final PrinterProfile DEFAULT = new PrinterProfile(true, true);
+
+  private final boolean nativeQr;
+  private final boolean nativeBarcode;
+
+  /**
+   * @param nativeQr      Whether the printer prints QR codes from GS ( k
+   * @param nativeBarcode Whether the printer prints barcodes from GS k
+   */
+  public PrinterProfile(boolean nativeQr, boolean nativeBarcode) {
+    this.nativeQr = nativeQr;
+    this.nativeBarcode = nativeBarcode;
+  }
+
+  public boolean isNativeQr() {
+    return nativeQr;
+  }
+
+  public boolean isNativeBarcode() {
+    return nativeBarcode;
+  }
+}
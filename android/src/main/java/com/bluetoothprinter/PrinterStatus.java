@@ -0,0 +1,67 @@
+package com.bluetoothprinter;
+
+/**
+ * Printer state decoded from the replies of DLE EOT 1 to 4.
+ */
+public class PrinterStatus {
+  public static final int PRINTER = 1;
+  public static final int OFFLINE_CAUSE = 2;
+  public static final int ERROR_CAUSE = 3;
+  public static final int PAPER_SENSOR = 4;
+
+  private final int printer;
+  private final int offlineCause;
+  private final int errorCause;
+  private final int paperSensor;
+
+  public PrinterStatus(int printer, int offlineCause, int errorCause, int paperSensor) {
+    this.printer = printer;
+    this.offlineCause = offlineCause;
+    this.errorCause = errorCause;
+    this.paperSensor = paperSensor;
+  }
+
+  private static boolean bit(int value, int bit) {
+    return (value & (1 << bit)) != 0;
+  }
+
+  public boolean isOnline() {
+    return !bit(printer, 3);
+  }
+
+  public boolean isDrawerOpen() {
+    return bit(printer, 2);
+  }
+
+  public boolean isCoverOpen() {
+    return bit(offlineCause, 2);
+  }
+
+  public boolean isPaperFeedPressed() {
+    return bit(offlineCause, 3);
+  }
+
+  public boolean isPaperOut() {
+    return bit(offlineCause, 5) || bit(paperSensor, 5) || bit(paperSensor, 6);
+  }
+
+  public boolean isPaperNearEnd() {
+    return bit(paperSensor, 2) || bit(paperSensor, 3);
+  }
+
+  public boolean isError() {
+    return bit(offlineCause, 6);
+  }
+
+  public boolean isCutterError() {
+    return bit(errorCause, 3);
+  }
+
+  public boolean isUnrecoverableError() {
+    return bit(errorCause, 5);
+  }
+
+  public boolean isAutoRecoverableError() {
+    return bit(errorCause, 6);
+  }
+}
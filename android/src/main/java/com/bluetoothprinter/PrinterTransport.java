@@ -0,0 +1,42 @@
+package com.bluetoothprinter;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The link used by a connection to exchange bytes with a printer.
+ * The same transport is opened again by every reconnect attempt of its connection.
+ */
+public interface PrinterTransport {
+  /**
+   * Identifies the printer, connections are pooled by it
+   */
+  String getAddress();
+
+  @Nullable
+  String getName();
+
+  /**
+   * Forget the close() of the last connection, called when a new connection attempt is
+   * created. From then on a close() aborts the next open(), even when it comes before it.
+   */
+  void reset();
+
+  /**
+   * Open the link, blocking until it is ready. Calling close() from another thread aborts it.
+   *
+   * @param metrics Where to record the timing of each connect phase
+   */
+  void open(ServiceMetrics metrics) throws IOException;
+
+  InputStream getInputStream() throws IOException;
+
+  OutputStream getOutputStream() throws IOException;
+
+  boolean isConnected();
+
+  void close() throws IOException;
+}
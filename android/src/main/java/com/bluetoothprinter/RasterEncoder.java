@@ -0,0 +1,120 @@
+package com.bluetoothprinter;
+
+/**
+ * Turns a RasterImage into ESC/POS GS v 0 commands, one per band of rows, and
+ * into the GS ( L commands storing it as graphics in the printer memory.
+ */
+public class RasterEncoder {
+  // GS v 0 takes the height in two bytes, but most printers only buffer a few hundred rows
+  public static final int MAX_BAND_HEIGHT = 2303;
+  // largest graphics the printers store in NV or download memory
+  public static final int MAX_GRAPHICS_WIDTH = 8192;
+  public static final int MAX_GRAPHICS_HEIGHT = 2304;
+
+  private static final byte GS = 0x1D;
+
+  private RasterEncoder() {
+  }
+
+  public static byte[] encode(RasterImage image, int bandHeight) {
+    int bytesPerRow = image.getBytesPerRow();
+    int height = image.getHeight();
+    int bands = (height + bandHeight - 1) / bandHeight;
+
+    byte[] out = new byte[bands * 8 + bytesPerRow * height];
+    int offset = 0;
+
+    for (int y = 0; y < height; y += bandHeight) {
+      int rows = Math.min(bandHeight, height - y);
+      offset = writeHeader(out, offset, bytesPerRow, rows);
+
+      int length = bytesPerRow * rows;
+      System.arraycopy(image.getData(), y * bytesPerRow, out, offset, length);
+      offset += length;
+    }
+
+    return out;
+  }
+
+  /**
+   * GS v 0 m xL xH yL yH, in normal mode
+   */
+  static int writeHeader(byte[] out, int offset, int bytesPerRow, int rows) {
+    out[offset++] = GS;
+    out[offset++] = 'v';
+    out[offset++] = '0';
+    out[offset++] = 0;
+    out[offset++] = (byte) (bytesPerRow & 0xFF);
+    out[offset++] = (byte) ((bytesPerRow >> 8) & 0xFF);
+    out[offset++] = (byte) (rows & 0xFF);
+    out[offset++] = (byte) ((rows >> 8) & 0xFF);
+    return offset;
+  }
+
+  /**
+   * GS ( L (GS 8 L when too long) defining the image as graphics in the printer memory,
+   * with a two character key code
+   */
+  public static byte[] defineGraphics(StoredGraphicsCache.Memory memory, String key, RasterImage image) {
+    if (image.getWidth() > MAX_GRAPHICS_WIDTH || image.getHeight() > MAX_GRAPHICS_HEIGHT) {
+      throw new IllegalArgumentException("Graphics larger than " + MAX_GRAPHICS_WIDTH + "x" + MAX_GRAPHICS_HEIGHT + " dots can't be stored");
+    }
+
+    int length = image.getData().length;
+    // from m to the end of the data
+    long size = 11L + length;
+    boolean extended = size > 0xFFFF;
+
+    byte[] out = new byte[(extended ? 7 : 5) + 11 + length];
+    int offset = 0;
+
+    out[offset++] = GS;
+    if (extended) {
+      out[offset++] = '8';
+      out[offset++] = 'L';
+      out[offset++] = (byte) (size & 0xFF);
+      out[offset++] = (byte) ((size >> 8) & 0xFF);
+      out[offset++] = (byte) ((size >> 16) & 0xFF);
+      out[offset++] = (byte) ((size >> 24) & 0xFF);
+    } else {
+      out[offset++] = '(';
+      out[offset++] = 'L';
+      out[offset++] = (byte) (size & 0xFF);
+      out[offset++] = (byte) ((size >> 8) & 0xFF);
+    }
+
+    out[offset++] = 0x30;
+    // function 67 for NV graphics, 83 for download graphics, in raster format
+    out[offset++] = (byte) (memory == StoredGraphicsCache.Memory.NV ? 0x43 : 0x53);
+    out[offset++] = 0x30;
+    out[offset++] = (byte) key.charAt(0);
+    out[offset++] = (byte) key.charAt(1);
+    out[offset++] = 1;
+    out[offset++] = (byte) (image.getWidth() & 0xFF);
+    out[offset++] = (byte) ((image.getWidth() >> 8) & 0xFF);
+    out[offset++] = (byte) (image.getHeight() & 0xFF);
+    out[offset++] = (byte) ((image.getHeight() >> 8) & 0xFF);
+    out[offset++] = 0x31;
+    System.arraycopy(image.getData(), 0, out, offset, length);
+
+    return out;
+  }
+
+  /**
+   * GS ( L deleting the graphics stored under the key code
+   */
+  public static byte[] deleteGraphics(StoredGraphicsCache.Memory memory, String key) {
+    // function 66 for NV graphics, 82 for download graphics
+    byte fn = (byte) (memory == StoredGraphicsCache.Memory.NV ? 0x42 : 0x52);
+    return new byte[]{GS, '(', 'L', 4, 0, 0x30, fn, (byte) key.charAt(0), (byte) key.charAt(1)};
+  }
+
+  /**
+   * GS ( L printing the graphics stored under the key code, in normal size
+   */
+  public static byte[] printGraphics(StoredGraphicsCache.Memory memory, String key) {
+    // function 69 for NV graphics, 85 for download graphics
+    byte fn = (byte) (memory == StoredGraphicsCache.Memory.NV ? 0x45 : 0x55);
+    return new byte[]{GS, '(', 'L', 6, 0, 0x30, fn, (byte) key.charAt(0), (byte) key.charAt(1), 1, 1};
+  }
+}
@@ -0,0 +1,39 @@
+package com.bluetoothprinter;
+
+/**
+ * 1-bit image packed in rows, 8 dots per byte with the leftmost dot in the highest bit
+ * and 1 for a printed dot, as the printer expects it.
+ */
+public class RasterImage {
+  private final int width;
+  private final int height;
+  private final int bytesPerRow;
+  private final byte[] data;
+
+  public RasterImage(int width, int height, byte[] data) {
+    this.width = width;
+    this.height = height;
+    this.bytesPerRow = bytesPerRow(width);
+    this.data = data;
+  }
+
+  public static int bytesPerRow(int width) {
+    return (width + 7) / 8;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getBytesPerRow() {
+    return bytesPerRow;
+  }
+
+  public byte[] getData() {
+    return data;
+  }
+}
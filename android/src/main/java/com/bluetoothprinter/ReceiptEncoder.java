@@ -0,0 +1,549 @@
+package com.bluetoothprinter;
+
+import android.util.Base64;
+
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+/**
+ * Encodes a receipt described as JSON into ESC/POS commands. The document is
+ * {"width": 48, "codepage": "cp850", "codepages": ["cp866"], "commands": [...]}, or only
+ * the commands array,
+ * with commands like {"type": "text", "text": "TOTAL", "bold": true, "align": "right"}.
+ * The style is tracked while encoding, so only its changes are sent to the printer.
+ * Documents with {{name}} fields can be compiled into a ReceiptTemplate instead.
+ * Barcodes and QR codes use the printer commands or are drawn as raster images,
+ * as the PrinterProfile of the printer says.
+ */
+public class ReceiptEncoder {
+  // characters per line in the normal font of a 80mm printer
+  public static final int DEFAULT_WIDTH = 48;
+
+  private static final int ESC = 0x1B;
+  private static final int GS = 0x1D;
+  private static final int LF = 0x0A;
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  public enum Align {
+    LEFT,
+    CENTER,
+    RIGHT
+  }
+
+  public enum BarcodeFormat {
+    UPC_A(65),
+    UPC_E(66),
+    EAN13(67),
+    EAN8(68),
+    CODE39(69),
+    ITF(70),
+    CODABAR(71),
+    CODE93(72),
+    CODE128(73);
+
+    private final int code;
+
+    BarcodeFormat(int code) {
+      this.code = code;
+    }
+  }
+
+  private final CommandBuffer out;
+  private final int width;
+  private final PrinterProfile profile;
+  // segments of the template being compiled, null when encoding a document
+  @Nullable
+  private final List<ReceiptTemplate.Segment> segments;
+
+  // state of the printer, to only send what changes
+  private final CodepageEncoder encoder;
+  private Align align = Align.LEFT;
+  private boolean bold = false;
+  private boolean underline = false;
+  private int widthScale = 1;
+  private int heightScale = 1;
+
+  private ReceiptEncoder(CommandBuffer out, JSONObject document, PrinterProfile profile, @Nullable List<ReceiptTemplate.Segment> segments) {
+    this.out = out;
+    this.profile = profile;
+    this.width = document.optInt("width", DEFAULT_WIDTH);
+    this.encoder = new CodepageEncoder(Codepage.parse(document.optString("codepage", "cp437")), parseFallbacks(document));
+    this.segments = segments;
+  }
+
+  /**
+   * @param json The document, or only its commands array
+   */
+  public static byte[] encode(String json, PrinterProfile profile) throws JSONException {
+    JSONObject document = parse(json);
+    CommandBuffer out = CommandBuffer.obtain();
+    try {
+      new ReceiptEncoder(out, document, profile, null).run(document);
+      return out.toByteArray();
+    } finally {
+      out.recycle();
+    }
+  }
+
+  /**
+   * Encode the static commands of the document once, keeping the texts, columns,
+   * barcodes and QR codes with {{name}} fields to be encoded on each print. Barcodes
+   * and QR codes are always left for the print, when the printer profile is known.
+   */
+  public static ReceiptTemplate compile(String json) throws JSONException {
+    JSONObject document = parse(json);
+    List<ReceiptTemplate.Segment> segments = new ArrayList<ReceiptTemplate.Segment>();
+    CommandBuffer out = CommandBuffer.obtain();
+
+    try {
+      ReceiptEncoder encoder = new ReceiptEncoder(out, document, PrinterProfile.DEFAULT, segments);
+      encoder.run(document);
+      encoder.flushStatic();
+    } finally {
+      out.recycle();
+    }
+
+    return new ReceiptTemplate(segments);
+  }
+
+  private static JSONObject parse(String json) throws JSONException {
+    String trimmed = json.trim();
+
+    if (trimmed.startsWith("[")) {
+      JSONObject document = new JSONObject();
+      document.put("commands", new JSONArray(trimmed));
+      return document;
+    }
+    return new JSONObject(trimmed);
+  }
+
+  private void run(JSONObject document) throws JSONException {
+    begin(document.optBoolean("initialize", true));
+
+    JSONArray commands = document.getJSONArray("commands");
+    for (int i = 0; i < commands.length(); i++) {
+      command(commands.getJSONObject(i));
+    }
+  }
+
+  /**
+   * Close the static bytes encoded so far into a segment of the template
+   */
+  private void flushStatic() {
+    if (out.size() > 0) {
+      segments.add(ReceiptTemplate.constant(out.toByteArray()));
+      out.clear();
+    }
+  }
+
+  private boolean isField(String text) {
+    return segments != null && ReceiptTemplate.hasFields(text);
+  }
+
+  private void dynamic(ReceiptTemplate.Segment segment) {
+    flushStatic();
+    segments.add(segment);
+  }
+
+  private void begin(boolean initialize) {
+    if (initialize) {
+      // ESC @, back to the default style
+      out.write(ESC, '@');
+    }
+    // the printer may have any codepage selected, so the first one is always sent
+    out.write(ESC, 't', encoder.getCodepage().getTable());
+  }
+
+  private void command(JSONObject command) throws JSONException {
+    String type = command.getString("type");
+
+    switch (type) {
+      case "text":
+        text(command);
+        break;
+      case "line":
+        line(command);
+        break;
+      case "columns":
+        columns(command);
+        break;
+      case "feed":
+        out.write(ESC, 'd', clamp(command.optInt("lines", 1), 0, 255));
+        break;
+      case "cut":
+        cut(command);
+        break;
+      case "barcode":
+        barcode(command);
+        break;
+      case "qr":
+        qr(command);
+        break;
+      case "raw":
+        out.write(Base64.decode(command.getString("base64"), Base64.DEFAULT));
+        break;
+      default:
+        throw new JSONException("Unknown command type: " + type);
+    }
+  }
+
+  private void text(JSONObject command) throws JSONException {
+    style(command, parseAlign(command));
+
+    if (command.has("codepage")) {
+      encoder.select(out, Codepage.parse(command.getString("codepage")));
+    }
+
+    String text = command.getString("text");
+
+    if (isField(text)) {
+      // static pieces are encoded now, the fields on each print
+      Matcher matcher = ReceiptTemplate.FIELD.matcher(text);
+      int start = 0;
+      while (matcher.find()) {
+        encoder.encode(out, text.substring(start, matcher.start()));
+        dynamic(textField(matcher.group(1), encoder.getCodepage(), encoder.getFallbacks()));
+        start = matcher.end();
+      }
+      encoder.encode(out, text.substring(start));
+    } else {
+      encoder.encode(out, text);
+    }
+
+    if (command.optBoolean("newline", true)) {
+      out.write(LF);
+    }
+  }
+
+  /**
+   * A line of the same character across the paper
+   */
+  private void line(JSONObject command) {
+    style(command, Align.LEFT);
+
+    String character = command.optString("char", "-");
+    byte[] encoded = CodepageEncoder.encode(character.isEmpty() ? "-" : character.substring(0, 1), encoder.getCodepage());
+    out.repeat(encoded[0], lineWidth());
+    out.write(LF);
+  }
+
+  /**
+   * One line split in columns, each one {"text", "width", "align"}. Columns without
+   * width share the rest of the line, texts longer than their column are cut.
+   */
+  private void columns(JSONObject command) throws JSONException {
+    style(command, Align.LEFT);
+
+    JSONArray columns = command.getJSONArray("columns");
+    int count = columns.length();
+    int[] widths = new int[count];
+    int fixed = 0;
+    int flexible = 0;
+
+    for (int i = 0; i < count; i++) {
+      widths[i] = Math.max(0, columns.getJSONObject(i).optInt("width", 0));
+      if (widths[i] > 0) {
+        fixed += widths[i];
+      } else {
+        flexible++;
+      }
+    }
+
+    int rest = Math.max(0, lineWidth() - fixed);
+    for (int i = 0; i < count; i++) {
+      if (widths[i] == 0) {
+        widths[i] = rest / flexible;
+        rest -= widths[i];
+        flexible--;
+      }
+    }
+
+    for (int i = 0; i < count; i++) {
+      JSONObject column = columns.getJSONObject(i);
+      String text = column.optString("text", "");
+      Align columnAlign = Align.valueOf(column.optString("align", "left").toUpperCase(Locale.ROOT));
+
+      if (isField(text)) {
+        dynamic(cellField(text, widths[i], columnAlign, encoder.getCodepage(), encoder.getFallbacks()));
+      } else {
+        encoder.encode(out, cell(text, widths[i], columnAlign));
+      }
+    }
+    out.write(LF);
+  }
+
+  /**
+   * The text cut or padded with spaces to the width of the column. Done on the
+   * characters, before encoding, as each one is a single byte in any codepage.
+   */
+  private static String cell(String text, int width, Align align) {
+    text = CodepageEncoder.normalize(text);
+    char[] cell = new char[width];
+    int length = Math.min(text.length(), width);
+    int padding = width - length;
+    int before = align == Align.RIGHT ? padding : align == Align.CENTER ? padding / 2 : 0;
+
+    Arrays.fill(cell, ' ');
+    text.getChars(0, length, cell, before);
+    return new String(cell);
+  }
+
+  private static ReceiptTemplate.Segment textField(final String name, final Codepage fieldCodepage, final Codepage[] fallbacks) {
+    return new ReceiptTemplate.Segment() {
+      @Override
+      public byte[] render(Map<String, String> values, PrinterProfile printerProfile) {
+        String value = values.get(name);
+        return encodeField(value != null ? value : "", fieldCodepage, fallbacks);
+      }
+    };
+  }
+
+  private static ReceiptTemplate.Segment cellField(final String text, final int width, final Align align, final Codepage fieldCodepage, final Codepage[] fallbacks) {
+    return new ReceiptTemplate.Segment() {
+      @Override
+      public byte[] render(Map<String, String> values, PrinterProfile printerProfile) {
+        return encodeField(cell(ReceiptTemplate.substitute(text, values), width, align), fieldCodepage, fallbacks);
+      }
+    };
+  }
+
+  /**
+   * Encode the value of a field, which may switch codepages on its own, selecting
+   * again the codepage of the template so the static bytes after it stay valid
+   */
+  private static byte[] encodeField(String value, Codepage fieldCodepage, Codepage[] fallbacks) {
+    CodepageEncoder fieldEncoder = new CodepageEncoder(fieldCodepage, fallbacks);
+    CommandBuffer buffer = CommandBuffer.obtain();
+    try {
+      fieldEncoder.encode(buffer, value);
+      fieldEncoder.select(buffer, fieldCodepage);
+      return buffer.toByteArray();
+    } finally {
+      buffer.recycle();
+    }
+  }
+
+  private void cut(JSONObject command) {
+    out.write(cutCommand(command.optBoolean("partial", false), command.optInt("feed", 3)));
+  }
+
+  /**
+   * GS V, feeding the lines first so the last printed line is above the cutter
+   */
+  static byte[] cutCommand(boolean partial, int feed) {
+    feed = clamp(feed, 0, 255);
+
+    if (feed > 0) {
+      // GS V m n, feeding n before cutting
+      return new byte[]{GS, 'V', (byte) (partial ? 66 : 65), (byte) feed};
+    }
+    return new byte[]{GS, 'V', (byte) (partial ? 1 : 0)};
+  }
+
+  private void barcode(JSONObject command) throws JSONException {
+    setAlign(parseAlign(command));
+
+    final BarcodeFormat format = BarcodeFormat.valueOf(command.optString("format", "code128").toUpperCase(Locale.ROOT));
+    final String data = command.getString("data");
+    final int height = clamp(command.optInt("height", 80), 1, 255);
+    final int barWidth = clamp(command.optInt("width", 3), 2, 6);
+    final int hri = parseHri(command.optString("hri", "below"));
+
+    if (segments == null) {
+      writeBarcode(out, format, data, height, barWidth, hri, profile);
+      return;
+    }
+
+    dynamic(new ReceiptTemplate.Segment() {
+      @Override
+      public byte[] render(Map<String, String> values, PrinterProfile printerProfile) {
+        CommandBuffer buffer = CommandBuffer.obtain();
+        try {
+          writeBarcode(buffer, format, ReceiptTemplate.substitute(data, values), height, barWidth, hri, printerProfile);
+          return buffer.toByteArray();
+        } finally {
+          buffer.recycle();
+        }
+      }
+    });
+  }
+
+  private static void writeBarcode(CommandBuffer out, BarcodeFormat format, String data, int height, int width, int hri, PrinterProfile printerProfile) {
+    if (!printerProfile.isNativeBarcode()) {
+      writeBarcodeRaster(out, format, data, height, width, hri);
+      return;
+    }
+
+    // CODE128 needs the code set, B covers the printable ASCII
+    if (format == BarcodeFormat.CODE128 && !data.startsWith("{")) {
+      data = "{B" + data;
+    }
+    byte[] bytes = data.getBytes(ASCII);
+    if (bytes.length > 255) {
+      throw new IllegalArgumentException("Barcode data too long");
+    }
+
+    out.write(GS, 'h', height);
+    out.write(GS, 'w', width);
+    out.write(GS, 'H', hri);
+    out.write(GS, 'k', format.code, bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * The barcode drawn as a raster image, with its text printed above or below
+   */
+  private static void writeBarcodeRaster(CommandBuffer out, BarcodeFormat format, String data, int height, int width, int hri) {
+    // the code set of CODE128 is chosen when drawing it
+    if (format == BarcodeFormat.CODE128 && data.length() >= 2 && data.charAt(0) == '{' && "ABC".indexOf(data.charAt(1)) >= 0) {
+      data = data.substring(2);
+    }
+    byte[] text = data.getBytes(ASCII);
+
+    if ((hri & 1) != 0) {
+      out.write(text);
+      out.write(LF);
+    }
+    out.write(SymbolRenderer.barcode(format, data, height, width));
+    if ((hri & 2) != 0) {
+      out.write(text);
+      out.write(LF);
+    }
+  }
+
+  private void qr(JSONObject command) throws JSONException {
+    setAlign(parseAlign(command));
+
+    final String data = command.getString("data");
+    final int size = clamp(command.optInt("size", 6), 1, 16);
+    final int level = "LMQH".indexOf(command.optString("errorCorrection", "M").toUpperCase(Locale.ROOT));
+    if (level < 0) {
+      throw new JSONException("Invalid QR error correction level");
+    }
+
+    if (segments == null) {
+      writeQr(out, data, size, level, profile);
+      return;
+    }
+
+    dynamic(new ReceiptTemplate.Segment() {
+      @Override
+      public byte[] render(Map<String, String> values, PrinterProfile printerProfile) {
+        CommandBuffer buffer = CommandBuffer.obtain();
+        try {
+          writeQr(buffer, ReceiptTemplate.substitute(data, values), size, level, printerProfile);
+          return buffer.toByteArray();
+        } finally {
+          buffer.recycle();
+        }
+      }
+    });
+  }
+
+  private static void writeQr(CommandBuffer out, String text, int size, int level, PrinterProfile printerProfile) {
+    if (!printerProfile.isNativeQr()) {
+      out.write(SymbolRenderer.qr(text, size, level));
+      return;
+    }
+
+    byte[] data = text.getBytes(UTF_8);
+    int length = data.length + 3;
+
+    // GS ( k: model 2, module size, error correction, store the data, print it
+    out.write(GS, '(', 'k', 4, 0, 0x31, 0x41, 0x32, 0);
+    out.write(GS, '(', 'k', 3, 0, 0x31, 0x43, size);
+    out.write(GS, '(', 'k', 3, 0, 0x31, 0x45, 0x30 + level);
+    out.write(GS, '(', 'k', length & 0xFF, (length >> 8) & 0xFF, 0x31, 0x50, 0x30);
+    out.write(data);
+    out.write(GS, '(', 'k', 3, 0, 0x31, 0x51, 0x30);
+  }
+
+  /**
+   * Apply the bold, underline and size of the command, the defaults when missing
+   */
+  private void style(JSONObject command, Align commandAlign) {
+    setAlign(commandAlign);
+
+    boolean commandBold = command.optBoolean("bold", false);
+    if (commandBold != bold) {
+      out.write(ESC, 'E', commandBold ? 1 : 0);
+      bold = commandBold;
+    }
+
+    boolean commandUnderline = command.optBoolean("underline", false);
+    if (commandUnderline != underline) {
+      out.write(ESC, '-', commandUnderline ? 1 : 0);
+      underline = commandUnderline;
+    }
+
+    int size = command.optInt("size", 1);
+    int commandWidth = clamp(command.optInt("widthScale", size), 1, 8);
+    int commandHeight = clamp(command.optInt("heightScale", size), 1, 8);
+    if (commandWidth != widthScale || commandHeight != heightScale) {
+      out.write(GS, '!', ((commandWidth - 1) << 4) | (commandHeight - 1));
+      widthScale = commandWidth;
+      heightScale = commandHeight;
+    }
+  }
+
+  private void setAlign(Align commandAlign) {
+    if (commandAlign != align) {
+      out.write(ESC, 'a', commandAlign.ordinal());
+      align = commandAlign;
+    }
+  }
+
+  private static Codepage[] parseFallbacks(JSONObject document) {
+    JSONArray codepages = document.optJSONArray("codepages");
+    if (codepages == null) {
+      return new Codepage[0];
+    }
+
+    Codepage[] fallbacks = new Codepage[codepages.length()];
+    for (int i = 0; i < fallbacks.length; i++) {
+      fallbacks[i] = Codepage.parse(codepages.optString(i));
+    }
+    return fallbacks;
+  }
+
+  /**
+   * Characters that fit in a line with the current width scale
+   */
+  private int lineWidth() {
+    return width / widthScale;
+  }
+
+  private static Align parseAlign(JSONObject command) {
+    return Align.valueOf(command.optString("align", "left").toUpperCase(Locale.ROOT));
+  }
+
+  private static int parseHri(String hri) {
+    switch (hri.toLowerCase(Locale.ROOT)) {
+      case "none":
+        return 0;
+      case "above":
+        return 1;
+      case "both":
+        return 3;
+      default:
+        return 2;
+    }
+  }
+
+  private static int clamp(int value, int min, int max) {
+    return Math.max(min, Math.min(max, value));
+  }
+}
@@ -0,0 +1,67 @@
+package com.bluetoothprinter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Receipt compiled once from a document with {{name}} fields. The static commands
+ * are kept encoded; printing only encodes the field values and returns the static
+ * and dynamic parts in order, to be written without joining them. Barcodes and QR
+ * codes are also encoded on each print, for the profile of the printer.
+ */
+public class ReceiptTemplate {
+  static final Pattern FIELD = Pattern.compile("\\{\\{\\s*(\\w+)\\s*\\}\\}");
+
+  interface Segment {
+    byte[] render(Map<String, String> values, PrinterProfile profile);
+  }
+
+  private final List<Segment> segments;
+
+  ReceiptTemplate(List<Segment> segments) {
+    this.segments = segments;
+  }
+
+  static Segment constant(final byte[] bytes) {
+    return new Segment() {
+      @Override
+      public byte[] render(Map<String, String> values, PrinterProfile profile) {
+        return bytes;
+      }
+    };
+  }
+
+  /**
+   * @param values  Value of each field, missing fields are left empty
+   * @param profile Profile of the printer, for its barcodes and QR codes
+   */
+  public byte[][] render(Map<String, String> values, PrinterProfile profile) {
+    byte[][] parts = new byte[segments.size()][];
+    for (int i = 0; i < parts.length; i++) {
+      parts[i] = segments.get(i).render(values, profile);
+    }
+    return parts;
+  }
+
+  static boolean hasFields(String text) {
+    return FIELD.matcher(text).find();
+  }
+
+  /**
+   * Replace the fields of the text by their values
+   */
+  static String substitute(String text, Map<String, String> values) {
+    Matcher matcher = FIELD.matcher(text);
+    StringBuffer result = new StringBuffer();
+
+    while (matcher.find()) {
+      String value = values.get(matcher.group(1));
+      matcher.appendReplacement(result, Matcher.quoteReplacement(value != null ? value : ""));
+    }
+    matcher.appendTail(result);
+
+    return result.toString();
+  }
+}
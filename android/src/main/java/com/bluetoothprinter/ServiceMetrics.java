@@ -0,0 +1,105 @@
+package com.bluetoothprinter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timings of the connections and jobs of the BluetoothService.
+ */
+public class ServiceMetrics {
+  // connection phases
+  public static final String CANCEL_DISCOVERY = "cancelDiscovery";
+  public static final String CREATE_SOCKET = "createSocket";
+  public static final String SOCKET_CONNECT = "socketConnect";
+  public static final String STREAM_SETUP = "streamSetup";
+  public static final String CONNECT_TOTAL = "connectTotal";
+
+  // jobs
+  public static final String JOB_QUEUE_WAIT = "jobQueueWait";
+  public static final String JOB_WRITE = "jobWrite";
+  public static final String JOB_THROUGHPUT = "jobThroughput";
+
+  private final Map<String, Histogram> histograms = new LinkedHashMap<String, Histogram>();
+  private long bytesWritten;
+  private long writeNanos;
+  private long jobsWritten;
+  private long jobsFailed;
+
+  public ServiceMetrics() {
+    for (String name : new String[]{CANCEL_DISCOVERY, CREATE_SOCKET, SOCKET_CONNECT, STREAM_SETUP, CONNECT_TOTAL, JOB_QUEUE_WAIT, JOB_WRITE}) {
+      histograms.put(name, new Histogram(Histogram.TIME_BOUNDS));
+    }
+    histograms.put(JOB_THROUGHPUT, new Histogram(Histogram.THROUGHPUT_BOUNDS));
+  }
+
+  /**
+   * Record the time spent in a phase since startedAt
+   *
+   * @param startedAt System.nanoTime() of when the phase started
+   */
+  public void recordSince(String name, long startedAt) {
+    histograms.get(name).record((System.nanoTime() - startedAt) / 1000000.0);
+  }
+
+  public void record(String name, double value) {
+    histograms.get(name).record(value);
+  }
+
+  /**
+   * Record a job written to the device
+   *
+   * @param bytes Size of the job
+   * @param nanos Time taken to write it
+   */
+  public synchronized void recordWrite(int bytes, long nanos) {
+    bytesWritten += bytes;
+    writeNanos += nanos;
+    jobsWritten++;
+
+    histograms.get(JOB_WRITE).record(nanos / 1000000.0);
+    if (nanos > 0) {
+      histograms.get(JOB_THROUGHPUT).record(bytes * 1000000000.0 / nanos);
+    }
+  }
+
+  public synchronized void recordFailure() {
+    jobsFailed++;
+  }
+
+  public synchronized long getBytesWritten() {
+    return bytesWritten;
+  }
+
+  public synchronized long getJobsWritten() {
+    return jobsWritten;
+  }
+
+  public synchronized long getJobsFailed() {
+    return jobsFailed;
+  }
+
+  /**
+   * Bytes per second over all the jobs written
+   */
+  public synchronized double getAverageThroughput() {
+    return writeNanos > 0 ? bytesWritten * 1000000000.0 / writeNanos : 0;
+  }
+
+  public Map<String, Histogram.Snapshot> snapshot() {
+    Map<String, Histogram.Snapshot> snapshots = new LinkedHashMap<String, Histogram.Snapshot>();
+    for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshots;
+  }
+
+  public synchronized void reset() {
+    for (Histogram histogram : histograms.values()) {
+      histogram.reset();
+    }
+    bytesWritten = 0;
+    writeNanos = 0;
+    jobsWritten = 0;
+    jobsFailed = 0;
+  }
+}
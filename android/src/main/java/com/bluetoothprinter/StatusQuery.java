@@ -0,0 +1,114 @@
+package com.bluetoothprinter;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Matches the replies of ESC/POS real-time status requests (DLE EOT n)
+ * among the bytes read from the device. Only one request is pending at a time.
+ * The replies carry no request number, so a reply read before the request was
+ * written is not taken, and a request that timed out leaves time for its late
+ * reply to arrive before the next one is sent.
+ */
+public class StatusQuery {
+  public static final byte DLE = 0x10;
+  public static final byte EOT = 0x04;
+
+  // status bytes are always 0xx1xx10b
+  private static final int REPLY_MASK = 0x93;
+  private static final int REPLY_PATTERN = 0x12;
+
+  // wait before the request that follows a timeout, for the late reply to be read first
+  static final int LATE_REPLY_GRACE = 100;
+
+  private boolean pending = false;
+  // whether the pending request is being written, the replies read before are stale
+  private boolean sent = false;
+  private boolean timedOut = false;
+  private int reply = -1;
+
+  public static byte[] command(int n) {
+    return new byte[]{DLE, EOT, (byte) n};
+  }
+
+  public static boolean isReply(byte b) {
+    return (b & REPLY_MASK) == REPLY_PATTERN;
+  }
+
+  /**
+   * Start waiting for a reply, must be called before the request is sent.
+   * After a timeout it first waits LATE_REPLY_GRACE.
+   */
+  public void arm() throws InterruptedException {
+    boolean grace;
+    synchronized (this) {
+      grace = timedOut;
+      timedOut = false;
+    }
+    if (grace) {
+      Thread.sleep(LATE_REPLY_GRACE);
+    }
+
+    synchronized (this) {
+      pending = true;
+      sent = false;
+      reply = -1;
+    }
+  }
+
+  /**
+   * Mark the request armed as sent, called right before it is written
+   */
+  public synchronized void sending() {
+    sent = true;
+  }
+
+  /**
+   * Offer the bytes read from the device to the pending request
+   *
+   * @return the position of the byte taken as reply, or -1
+   */
+  public synchronized int onRead(byte[] buffer, int offset, int length) {
+    if (!pending || !sent) {
+      return -1;
+    }
+
+    for (int i = offset; i < offset + length; i++) {
+      if (isReply(buffer[i])) {
+        reply = buffer[i] & 0xFF;
+        pending = false;
+        notifyAll();
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Wait for the reply of the request armed before
+   *
+   * @return the status byte
+   */
+  public synchronized int await(int timeout) throws InterruptedException, TimeoutException {
+    long deadline = System.currentTimeMillis() + timeout;
+
+    while (pending) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        pending = false;
+        timedOut = true;
+        throw new TimeoutException("No status reply from device after " + timeout + "ms");
+      }
+      wait(remaining);
+    }
+    return reply;
+  }
+
+  /**
+   * Abort the pending request, e.g. when the connection is closed
+   */
+  public synchronized void cancel() {
+    pending = false;
+    reply = -1;
+    notifyAll();
+  }
+}
@@ -0,0 +1,243 @@
+package com.bluetoothprinter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.Nullable;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers, per printer address, which images are already stored in the printer memory
+ * and under which key code, so they are printed by key instead of sent again.
+ * Images in NV memory survive printer restarts and are kept in the shared preferences;
+ * download graphics are lost when the printer is turned off and are only kept until
+ * the printer connects again. Each printer holds at most MAX_GRAPHICS images per memory,
+ * the least recently printed ones are deleted from it to make room.
+ */
+public class StoredGraphicsCache {
+  private static final String PREFERENCES = "RNBluetoothPrinter.StoredGraphics";
+
+  // key codes are two of these characters, a subset of the 32..126 range the printers accept
+  private static final String KEY_CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+  // images kept in each memory of a printer, small enough for the NV memory of most printers
+  public static final int MAX_GRAPHICS = 8;
+
+  public enum Memory {
+    // non-volatile, survives restarts, but has a limited number of writes
+    NV,
+    // download graphics, in RAM
+    DOWNLOAD
+  }
+
+  /**
+   * A key code given to an image, and the key codes of the images to delete before
+   * defining it, to make room in the printer memory
+   */
+  public static class Allocation {
+    private final String key;
+    private final List<String> evicted;
+
+    Allocation(String key, List<String> evicted) {
+      this.key = key;
+      this.evicted = evicted;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public List<String> getEvicted() {
+      return evicted;
+    }
+  }
+
+  private final SharedPreferences preferences;
+  // printer address -> image hash -> key code, from the least recently printed
+  private final Map<String, Map<String, String>> nv = new HashMap<String, Map<String, String>>();
+  private final Map<String, Map<String, String>> download = new HashMap<String, Map<String, String>>();
+  // printer address -> key code -> image hash, of the images being defined
+  private final Map<String, Map<String, String>> nvReserved = new HashMap<String, Map<String, String>>();
+  private final Map<String, Map<String, String>> downloadReserved = new HashMap<String, Map<String, String>>();
+
+  public StoredGraphicsCache(Context context) {
+    preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+
+    for (Map.Entry<String, ?> stored : preferences.getAll().entrySet()) {
+      if (stored.getValue() instanceof String) {
+        nv.put(stored.getKey(), decode((String) stored.getValue()));
+      }
+    }
+  }
+
+  /**
+   * Hash identifying an image by its dots, whatever source and encoding it came from
+   */
+  public static String hash(RasterImage image) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      int width = image.getWidth();
+      int height = image.getHeight();
+      digest.update(new byte[]{
+        (byte) (width >> 8), (byte) width,
+        (byte) (height >> 8), (byte) height
+      });
+      digest.update(image.getData());
+
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hex.append(String.format("%02x", b & 0xFF));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Key code of the image in the printer, null when it is not stored there.
+   * The image becomes the most recently printed.
+   */
+  @Nullable
+  public synchronized String get(Memory memory, String address, String hash) {
+    Map<String, String> keys = table(memory).get(address);
+    return keys != null ? keys.get(hash) : null;
+  }
+
+  /**
+   * Reserve a key code not used by another image in the printer, derived from the hash,
+   * until put() or release() is called for it. When the printer is full the least
+   * recently printed images are forgotten, and returned to be deleted from it.
+   */
+  public synchronized Allocation allocate(Memory memory, String address, String hash) {
+    Map<String, String> keys = keys(table(memory), address);
+    Map<String, String> reserved = keys(reservedTable(memory), address);
+    List<String> evicted = Collections.emptyList();
+
+    if (keys.containsKey(hash)) {
+      return new Allocation(keys.get(hash), evicted);
+    }
+    // the same image is being defined by another job
+    for (Map.Entry<String, String> reservation : reserved.entrySet()) {
+      if (reservation.getValue().equals(hash)) {
+        return new Allocation(reservation.getKey(), evicted);
+      }
+    }
+
+    Iterator<String> eldest = keys.values().iterator();
+    while (keys.size() + reserved.size() >= MAX_GRAPHICS && eldest.hasNext()) {
+      if (evicted.isEmpty()) {
+        evicted = new ArrayList<String>();
+      }
+      evicted.add(eldest.next());
+      eldest.remove();
+    }
+    if (!evicted.isEmpty()) {
+      save(memory, address, keys);
+    }
+
+    int size = KEY_CHARS.length() * KEY_CHARS.length();
+    int start = (int) (Long.parseLong(hash.substring(0, 8), 16) % size);
+
+    for (int i = 0; i < size; i++) {
+      int n = (start + i) % size;
+      String key = "" + KEY_CHARS.charAt(n / KEY_CHARS.length()) + KEY_CHARS.charAt(n % KEY_CHARS.length());
+      if (!keys.containsValue(key) && !reserved.containsKey(key)) {
+        reserved.put(key, hash);
+        return new Allocation(key, evicted);
+      }
+    }
+    throw new IllegalStateException("No key code left for " + address);
+  }
+
+  /**
+   * Give back a key code reserved by allocate(), when the image could not be defined
+   */
+  public synchronized void release(Memory memory, String address, String key) {
+    Map<String, String> reserved = reservedTable(memory).get(address);
+    if (reserved != null) {
+      reserved.remove(key);
+    }
+  }
+
+  /**
+   * Record that the image was stored in the printer under the key code
+   */
+  public synchronized void put(Memory memory, String address, String hash, String key) {
+    release(memory, address, key);
+
+    Map<String, String> keys = keys(table(memory), address);
+    keys.put(hash, key);
+    save(memory, address, keys);
+  }
+
+  /**
+   * Forget the download graphics of a printer, which may have been restarted
+   */
+  public synchronized void clearDownload(String address) {
+    download.remove(address);
+  }
+
+  public synchronized void clear(String address) {
+    download.remove(address);
+    nv.remove(address);
+    preferences.edit().remove(address).apply();
+  }
+
+  private Map<String, Map<String, String>> table(Memory memory) {
+    return memory == Memory.NV ? nv : download;
+  }
+
+  private Map<String, Map<String, String>> reservedTable(Memory memory) {
+    return memory == Memory.NV ? nvReserved : downloadReserved;
+  }
+
+  /**
+   * The keys of the printer in the table, created when missing
+   */
+  private static Map<String, String> keys(Map<String, Map<String, String>> table, String address) {
+    Map<String, String> keys = table.get(address);
+    if (keys == null) {
+      keys = new LinkedHashMap<String, String>(16, 0.75f, true);
+      table.put(address, keys);
+    }
+    return keys;
+  }
+
+  private void save(Memory memory, String address, Map<String, String> keys) {
+    if (memory == Memory.NV) {
+      preferences.edit().putString(address, encode(keys)).apply();
+    }
+  }
+
+  private static String encode(Map<String, String> keys) {
+    StringBuilder value = new StringBuilder();
+    for (Map.Entry<String, String> entry : keys.entrySet()) {
+      if (value.length() > 0) {
+        value.append(',');
+      }
+      value.append(entry.getKey()).append('=').append(entry.getValue());
+    }
+    return value.toString();
+  }
+
+  private static Map<String, String> decode(String value) {
+    Map<String, String> keys = new LinkedHashMap<String, String>(16, 0.75f, true);
+    for (String pair : value.split(",")) {
+      int separator = pair.indexOf('=');
+      if (separator > 0) {
+        keys.put(pair.substring(0, separator), pair.substring(separator + 1));
+      }
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,167 @@
+package com.bluetoothprinter;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Draws QR codes and barcodes on the phone, for printers whose firmware lacks them,
+ * and encodes them into raster bands. The symbols are drawn with a dot per module and
+ * scaled, and the encoded bytes are cached by content so repeated prints are free.
+ */
+public class SymbolRenderer {
+  // bytes of encoded symbols kept, the least recently used are dropped first
+  private static final int MAX_CACHE_BYTES = 512 * 1024;
+
+  private static final ErrorCorrectionLevel[] LEVELS = {
+    ErrorCorrectionLevel.L,
+    ErrorCorrectionLevel.M,
+    ErrorCorrectionLevel.Q,
+    ErrorCorrectionLevel.H
+  };
+
+  private static final Map<String, byte[]> cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+  private static int cacheBytes = 0;
+
+  /**
+   * @param moduleSize Dots per module, as in GS ( k
+   * @param level      Error correction, 0 to 3 for L, M, Q and H
+   */
+  public static byte[] qr(String data, int moduleSize, int level) {
+    String key = "qr|" + moduleSize + "|" + level + "|" + data;
+    byte[] encoded = cached(key);
+    if (encoded != null) {
+      return encoded;
+    }
+
+    Map<EncodeHintType, Object> hints = new EnumMap<EncodeHintType, Object>(EncodeHintType.class);
+    hints.put(EncodeHintType.ERROR_CORRECTION, LEVELS[level]);
+    hints.put(EncodeHintType.CHARACTER_SET, "UTF-8");
+    hints.put(EncodeHintType.MARGIN, 0);
+
+    BitMatrix matrix = write(data, BarcodeFormat.QR_CODE, hints);
+    int modules = matrix.getWidth();
+    int width = modules * moduleSize;
+    int bytesPerRow = RasterImage.bytesPerRow(width);
+    byte[] rows = new byte[bytesPerRow * width];
+
+    for (int y = 0; y < modules; y++) {
+      int row = y * moduleSize * bytesPerRow;
+      for (int x = 0; x < modules; x++) {
+        if (matrix.get(x, y)) {
+          fill(rows, row, x * moduleSize, moduleSize);
+        }
+      }
+      // the other rows of the module are the same
+      for (int i = 1; i < moduleSize; i++) {
+        System.arraycopy(rows, row, rows, row + i * bytesPerRow, bytesPerRow);
+      }
+    }
+
+    encoded = RasterEncoder.encode(new RasterImage(width, width, rows), ImageOptions.DEFAULT_BAND_HEIGHT);
+    cache(key, encoded);
+    return encoded;
+  }
+
+  /**
+   * @param height   Height in dots, as in GS h
+   * @param barWidth Dots of the narrowest bar, as in GS w
+   */
+  public static byte[] barcode(ReceiptEncoder.BarcodeFormat format, String data, int height, int barWidth) {
+    String key = "barcode|" + format + "|" + height + "|" + barWidth + "|" + data;
+    byte[] encoded = cached(key);
+    if (encoded != null) {
+      return encoded;
+    }
+
+    Map<EncodeHintType, Object> hints = new EnumMap<EncodeHintType, Object>(EncodeHintType.class);
+    hints.put(EncodeHintType.MARGIN, 0);
+
+    BitMatrix matrix = write(data, toZxing(format), hints);
+    int modules = matrix.getWidth();
+    int width = modules * barWidth;
+    int bytesPerRow = RasterImage.bytesPerRow(width);
+    byte[] rows = new byte[bytesPerRow * height];
+
+    for (int x = 0; x < modules; x++) {
+      if (matrix.get(x, 0)) {
+        fill(rows, 0, x * barWidth, barWidth);
+      }
+    }
+    for (int y = 1; y < height; y++) {
+      System.arraycopy(rows, 0, rows, y * bytesPerRow, bytesPerRow);
+    }
+
+    encoded = RasterEncoder.encode(new RasterImage(width, height, rows), ImageOptions.DEFAULT_BAND_HEIGHT);
+    cache(key, encoded);
+    return encoded;
+  }
+
+  private static BitMatrix write(String data, BarcodeFormat format, Map<EncodeHintType, Object> hints) {
+    try {
+      // a width and height of 0 gives the smallest symbol, a dot per module
+      return new MultiFormatWriter().encode(data, format, 0, 0, hints);
+    } catch (WriterException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Set count dots of the row from the dot x
+   */
+  private static void fill(byte[] rows, int row, int x, int count) {
+    for (int i = x; i < x + count; i++) {
+      rows[row + (i >> 3)] |= (byte) (0x80 >> (i & 7));
+    }
+  }
+
+  private static BarcodeFormat toZxing(ReceiptEncoder.BarcodeFormat format) {
+    switch (format) {
+      case UPC_A:
+        return BarcodeFormat.UPC_A;
+      case UPC_E:
+        return BarcodeFormat.UPC_E;
+      case EAN13:
+        return BarcodeFormat.EAN_13;
+      case EAN8:
+        return BarcodeFormat.EAN_8;
+      case CODE39:
+        return BarcodeFormat.CODE_39;
+      case ITF:
+        return BarcodeFormat.ITF;
+      case CODABAR:
+        return BarcodeFormat.CODABAR;
+      case CODE93:
+        return BarcodeFormat.CODE_93;
+      default:
+        return BarcodeFormat.CODE_128;
+    }
+  }
+
+  private static synchronized byte[] cached(String key) {
+    return cache.get(key);
+  }
+
+  private static synchronized void cache(String key, byte[] encoded) {
+    if (encoded.length > MAX_CACHE_BYTES || cache.containsKey(key)) {
+      return;
+    }
+
+    cache.put(key, encoded);
+    cacheBytes += encoded.length;
+
+    Iterator<byte[]> eldest = cache.values().iterator();
+    while (cacheBytes > MAX_CACHE_BYTES) {
+      cacheBytes -= eldest.next().length;
+      eldest.remove();
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com.bluetoothprinter;
+
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Raw TCP link to a network printer, usually on port 9100. Also used against a local
+ * server to run the print pipeline off-device.
+ */
+public class TcpTransport implements PrinterTransport {
+  public static final int DEFAULT_PORT = 9100;
+  public static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+  // large enough to keep a LAN printer busy while the next chunk is written
+  public static final int DEFAULT_SEND_BUFFER = 256 * 1024;
+
+  private final String mHost;
+  private final int mPort;
+  private final int mConnectTimeout;
+  private final int mSendBufferSize;
+  private volatile Socket mSocket;
+  private volatile boolean mClosed = false;
+
+  public TcpTransport(String host, int port) {
+    this(host, port, DEFAULT_CONNECT_TIMEOUT, DEFAULT_SEND_BUFFER);
+  }
+
+  /**
+   * @param sendBufferSize Size of the socket send buffer, 0 for the system default
+   */
+  public TcpTransport(String host, int port, int connectTimeout, int sendBufferSize) {
+    mHost = host;
+    mPort = port;
+    mConnectTimeout = connectTimeout;
+    mSendBufferSize = sendBufferSize;
+  }
+
+  public String getHost() {
+    return mHost;
+  }
+
+  public int getPort() {
+    return mPort;
+  }
+
+  @Override
+  public String getAddress() {
+    return mHost + ":" + mPort;
+  }
+
+  @Nullable
+  @Override
+  public String getName() {
+    return getAddress();
+  }
+
+  @Override
+  public void open(ServiceMetrics metrics) throws IOException {
+    closeSocket();
+
+    long startedAt = System.nanoTime();
+    Socket socket = new Socket();
+    // the chunks are already sized by the write options, don't wait to coalesce them
+    socket.setTcpNoDelay(true);
+    socket.setKeepAlive(true);
+    // set before connecting, so the window scaling is negotiated for it
+    if (mSendBufferSize > 0) {
+      socket.setSendBufferSize(mSendBufferSize);
+    }
+    metrics.recordSince(ServiceMetrics.CREATE_SOCKET, startedAt);
+    mSocket = socket;
+
+    // closed before or while the socket was being created
+    if (mClosed) {
+      socket.close();
+      throw new IOException("Connection closed");
+    }
+
+    startedAt = System.nanoTime();
+    socket.connect(new InetSocketAddress(mHost, mPort), mConnectTimeout);
+    metrics.recordSince(ServiceMetrics.SOCKET_CONNECT, startedAt);
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return mSocket.getInputStream();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return mSocket.getOutputStream();
+  }
+
+  @Override
+  public void reset() {
+    mClosed = false;
+  }
+
+  @Override
+  public boolean isConnected() {
+    Socket socket = mSocket;
+    return socket != null && socket.isConnected() && !socket.isClosed();
+  }
+
+  @Override
+  public void close() throws IOException {
+    mClosed = true;
+    closeSocket();
+  }
+
+  private void closeSocket() throws IOException {
+    Socket socket = mSocket;
+    if (socket != null) {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package com.bluetoothprinter;
+
+/**
+ * How the bytes of a job are sent to the device: in chunks of which size,
+ * and how the chunks are paced so printers with small buffers don't overflow.
+ */
+public class WriteOptions {
+  public static final int DEFAULT_XOFF_TIMEOUT = 30000;
+
+  public enum Pacing {
+    // send chunks as fast as the socket accepts them
+    NONE,
+    // wait a fixed time between chunks
+    FIXED_DELAY,
+    // keep the average throughput under a bytes per second budget
+    BYTES_PER_SECOND,
+    // stop sending while the printer reports XOFF, until it reports XON
+    XON_XOFF
+  }
+
+  public static final WriteOptions DEFAULT = new WriteOptions(0, Pacing.NONE, 0, 0, DEFAULT_XOFF_TIMEOUT);
+
+  private final int chunkSize;
+  private final Pacing pacing;
+  private final int chunkDelay;
+  private final int bytesPerSecond;
+  private final int xoffTimeout;
+
+  /**
+   * @param chunkSize      Max bytes per write, 0 to write the whole job at once
+   * @param pacing         How to pace the chunks
+   * @param chunkDelay     Milliseconds to wait between chunks, for FIXED_DELAY
+   * @param bytesPerSecond Throughput budget, for BYTES_PER_SECOND
+   * @param xoffTimeout    Milliseconds to wait for XON before failing the job, for XON_XOFF
+   */
+  public WriteOptions(int chunkSize, Pacing pacing, int chunkDelay, int bytesPerSecond, int xoffTimeout) {
+    this.chunkSize = Math.max(0, chunkSize);
+    this.pacing = pacing;
+    this.chunkDelay = Math.max(0, chunkDelay);
+    this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    this.xoffTimeout = Math.max(0, xoffTimeout);
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public Pacing getPacing() {
+    return pacing;
+  }
+
+  public int getChunkDelay() {
+    return chunkDelay;
+  }
+
+  public int getBytesPerSecond() {
+    return bytesPerSecond;
+  }
+
+  public int getXoffTimeout() {
+    return xoffTimeout;
+  }
+}
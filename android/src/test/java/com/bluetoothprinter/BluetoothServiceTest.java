@@ -0,0 +1,334 @@
+package com.bluetoothprinter;
+
+import androidx.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Drives the connections of the service through a MemoryTransport, without Bluetooth
+ */
+public class BluetoothServiceTest {
+  private static final String ADDRESS = "memory-1";
+  private static final long TIMEOUT = 5000;
+  private static final int JOB_SIZE = 64 * 1024;
+  private static final int JOBS = 50;
+  // bytes allocated by the writer for each job, whatever its size: the completed event
+  private static final int JOB_ALLOCATIONS = 512;
+
+  private BluetoothService service;
+  private MemoryTransport transport;
+  private final Recorder recorder = new Recorder();
+
+  /**
+   * Keeps the codes sent to the observers, so the tests can wait for them
+   */
+  private static class Recorder implements BluetoothServiceStateObserver {
+    private final List<Integer> codes = new ArrayList<Integer>();
+
+    @Override
+    public synchronized void onBluetoothServiceStateChanged(int state, Map<String, Object> bundle, Exception exception) {
+      codes.add(state);
+      notifyAll();
+    }
+
+    synchronized int count(int code) {
+      int count = 0;
+      for (int c : codes) {
+        if (c == code) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    synchronized void await(int code, int count) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while (count(code) < count) {
+        long remaining = deadline - System.currentTimeMillis();
+        assertTrue("timed out waiting for " + count + " events " + code + ", got " + codes, remaining > 0);
+        wait(remaining);
+      }
+    }
+  }
+
+  @Before
+  public void setUp() {
+    service = new BluetoothService(null, null);
+    transport = new MemoryTransport(ADDRESS);
+    service.addStateObserver(recorder);
+  }
+
+  @After
+  public void tearDown() {
+    service.stop();
+    service.removeStateObserver(recorder);
+  }
+
+  private void connect() throws InterruptedException {
+    int connected = recorder.count(BluetoothService.STATE_CONNECTED);
+    service.connect(transport);
+    recorder.await(BluetoothService.STATE_CONNECTED, connected + 1);
+  }
+
+  private static byte[] bytes(int from, int count) {
+    byte[] data = new byte[count];
+    for (int i = 0; i < count; i++) {
+      data[i] = (byte) (from + i);
+    }
+    return data;
+  }
+
+  @Nullable
+  private static Thread writerThread() {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.isAlive() && "WriterThread".equals(thread.getName())) {
+        return thread;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Bytes allocated by the thread so far, -1 when the JVM doesn't count them
+   */
+  private static long allocatedBytes(Thread thread) {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    return threads.getThreadAllocatedBytes(thread.getId());
+  }
+
+  /**
+   * Write the jobs one after the other, waiting for each one
+   */
+  private void writeJobs(byte[] data, int count) throws InterruptedException {
+    for (int i = 0; i < count; i++) {
+      int completed = recorder.count(BluetoothService.MESSAGE_JOB_COMPLETED);
+      service.submit(ADDRESS, service.createJob(data));
+      recorder.await(BluetoothService.MESSAGE_JOB_COMPLETED, completed + 1);
+    }
+  }
+
+  private static int aliveWriters() {
+    int count = 0;
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.isAlive() && "WriterThread".equals(thread.getName())) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void connectsAndWritesJobsInOrder() throws Exception {
+    connect();
+    assertEquals(BluetoothService.STATE_CONNECTED, service.getState(ADDRESS));
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    for (int i = 0; i < 3; i++) {
+      byte[] data = bytes(i * 10, 10);
+      expected.write(data);
+      service.submit(ADDRESS, service.createJob(data));
+    }
+
+    recorder.await(BluetoothService.MESSAGE_JOB_COMPLETED, 3);
+    assertArrayEquals(expected.toByteArray(), transport.getWritten());
+  }
+
+  @Test
+  public void cancelBeforeTheTransportOpensIsKept() throws Exception {
+    // what the connect thread sees when the cancel comes before its open()
+    transport.reset();
+    transport.close();
+    try {
+      transport.open(new ServiceMetrics());
+      fail("expected the closed transport not to open");
+    } catch (IOException expected) {
+    }
+
+    // a new connection forgets the close of the last one
+    connect();
+    service.stop(ADDRESS);
+    assertFalse(transport.isConnected());
+  }
+
+  @Test
+  public void writesJobsInChunks() throws Exception {
+    service.setWriteOptions(new WriteOptions(7, WriteOptions.Pacing.NONE, 0, 0, WriteOptions.DEFAULT_XOFF_TIMEOUT));
+    connect();
+
+    byte[] data = bytes(0, 100);
+    service.submit(ADDRESS, service.createJob(new byte[][]{bytes(0, 30), bytes(30, 70)}));
+
+    recorder.await(BluetoothService.MESSAGE_JOB_COMPLETED, 1);
+    assertArrayEquals(data, transport.getWritten());
+  }
+
+  @Test
+  public void lostConnectionFailsQueuedJobsWithoutKeepAlive() throws Exception {
+    connect();
+    transport.stall();
+    service.submit(ADDRESS, service.createJob(bytes(0, 10)));
+    service.submit(ADDRESS, service.createJob(bytes(10, 10)));
+
+    transport.disconnect();
+
+    recorder.await(BluetoothService.MESSAGE_CONNECTION_LOST, 1);
+    recorder.await(BluetoothService.MESSAGE_JOB_FAILED, 2);
+    assertEquals(BluetoothService.STATE_NONE, service.getState(ADDRESS));
+  }
+
+  @Test
+  public void reconnectsAndWritesTheQueuedJobs() throws Exception {
+    service.setKeepAlive(new KeepAliveOptions(true, 0, 1000, 10, 10, 0));
+    connect();
+
+    // the first job is being written when the printer goes away, the second waits in the queue
+    transport.stall();
+    service.submit(ADDRESS, service.createJob(bytes(0, 10)));
+    service.submit(ADDRESS, service.createJob(bytes(10, 10)));
+    Thread.sleep(100);
+    transport.disconnect();
+    transport.resume();
+
+    recorder.await(BluetoothService.MESSAGE_CONNECTION_LOST, 1);
+    recorder.await(BluetoothService.STATE_CONNECTED, 2);
+    service.submit(ADDRESS, service.createJob(bytes(20, 10)));
+
+    recorder.await(BluetoothService.MESSAGE_JOB_COMPLETED, 2);
+    assertEquals(2, transport.getOpenCount());
+    assertEquals(1, aliveWriters());
+  }
+
+  @Test
+  public void statusQueryWaitsForTheJobBeingWritten() throws Exception {
+    // a raster job in small chunks, the query comes while it is half written
+    service.setWriteOptions(new WriteOptions(16, WriteOptions.Pacing.FIXED_DELAY, 10, 0, WriteOptions.DEFAULT_XOFF_TIMEOUT));
+    connect();
+
+    byte[] raster = bytes(0, 256);
+    service.submit(ADDRESS, service.createJob(raster));
+    Thread.sleep(50);
+
+    Thread query = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          service.queryStatus(ADDRESS, 100);
+        } catch (Exception expected) {
+          // nobody answers, only the bytes written matter
+        }
+      }
+    });
+    query.start();
+
+    recorder.await(BluetoothService.MESSAGE_JOB_COMPLETED, 1);
+    query.join(TIMEOUT);
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write(raster);
+    expected.write(StatusQuery.command(PrinterStatus.PRINTER));
+    assertArrayEquals(expected.toByteArray(), transport.getWritten());
+  }
+
+  @Test
+  public void writerAllocatesOnlyTheCompletedEvent() throws Exception {
+    service.setWriteLogLevel(BluetoothService.WriteLogLevel.OFF, 0);
+    connect();
+    Thread writer = writerThread();
+    assumeTrue(writer != null && allocatedBytes(writer) >= 0);
+
+    byte[] data = bytes(0, JOB_SIZE);
+    writeJobs(data, JOBS);
+    transport.clearWritten();
+
+    long before = allocatedBytes(writer);
+    writeJobs(data, JOBS);
+    long allocated = allocatedBytes(writer) - before;
+
+    assertTrue("allocated " + allocated + " bytes for " + JOBS + " jobs", allocated / JOBS < JOB_ALLOCATIONS);
+  }
+
+  @Test
+  public void cancelHoldsBackTheRestOfTheJobAndResetsThePrinter() throws Exception {
+    // one byte every 20 ms, so the cancel lands between chunks
+    service.setWriteOptions(new WriteOptions(1, WriteOptions.Pacing.FIXED_DELAY, 20, 0, WriteOptions.DEFAULT_XOFF_TIMEOUT));
+    connect();
+
+    PrintJob job = service.createJob(bytes(0, 50));
+    service.submit(ADDRESS, job);
+    Thread.sleep(100);
+
+    assertTrue(service.cancelJob(job.getId()));
+    recorder.await(BluetoothService.MESSAGE_JOB_FAILED, 1);
+
+    byte[] written = transport.getWritten();
+    assertTrue(written.length < 50 + 2);
+    assertEquals(0x1B, written[written.length - 2]);
+    assertEquals('@', written[written.length - 1]);
+  }
+
+  @Test
+  public void cancelDuringTheLastChunkLetsTheJobComplete() throws Exception {
+    connect();
+
+    // the whole job is one chunk, blocked in the transport when the cancel comes
+    transport.stall();
+    PrintJob job = service.createJob(bytes(0, 10));
+    service.submit(ADDRESS, job);
+    Thread.sleep(100);
+
+    assertFalse(service.cancelJob(job.getId()));
+    transport.resume();
+
+    recorder.await(BluetoothService.MESSAGE_JOB_COMPLETED, 1);
+    assertEquals(0, recorder.count(BluetoothService.MESSAGE_JOB_FAILED));
+    assertArrayEquals(bytes(0, 10), transport.getWritten());
+  }
+
+  @Test
+  public void reconnectDoesNotLeaveTheOldWriterRunning() throws Exception {
+    service.setKeepAlive(new KeepAliveOptions(true, 0, 1000, 10, 10, 0));
+    // the writer spends most of its time in the flow control sleep, where the interrupt lands
+    service.setWriteOptions(new WriteOptions(1, WriteOptions.Pacing.FIXED_DELAY, 20, 0, WriteOptions.DEFAULT_XOFF_TIMEOUT));
+    connect();
+
+    service.submit(ADDRESS, service.createJob(bytes(0, 50)));
+    Thread.sleep(100);
+    transport.disconnect();
+
+    recorder.await(BluetoothService.STATE_CONNECTED, 2);
+    recorder.await(BluetoothService.MESSAGE_JOB_FAILED, 1);
+
+    transport.clearWritten();
+    service.setWriteOptions(WriteOptions.DEFAULT);
+    for (int i = 0; i < 5; i++) {
+      service.submit(ADDRESS, service.createJob(bytes(i * 10, 10)));
+    }
+
+    recorder.await(BluetoothService.MESSAGE_JOB_COMPLETED, 5);
+    assertEquals(1, aliveWriters());
+    assertArrayEquals(bytes(0, 50), transport.getWritten());
+  }
+}
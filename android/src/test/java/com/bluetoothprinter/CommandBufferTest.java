@@ -0,0 +1,73 @@
+package com.bluetoothprinter;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class CommandBufferTest {
+  private static final int JOB_SIZE = 64 * 1024;
+  private static final int JOBS = 100;
+
+  /**
+   * Bytes allocated by the current thread so far, -1 when the JVM doesn't count them
+   */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+      return -1;
+    }
+    return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static void encodeJob(byte[] chunk) {
+    CommandBuffer buffer = CommandBuffer.obtain();
+    for (int written = 0; written < JOB_SIZE; written += chunk.length) {
+      buffer.write(chunk);
+    }
+    buffer.recycle();
+  }
+
+  @Test
+  public void recycledBufferIsEmpty() {
+    CommandBuffer buffer = CommandBuffer.obtain();
+    buffer.write(1, 2, 3).repeat(4, 10);
+    buffer.recycle();
+
+    // whichever buffer the pool gives back, it starts empty
+    for (int i = 0; i < 8; i++) {
+      CommandBuffer reused = CommandBuffer.obtain();
+      assertEquals(0, reused.size());
+      reused.write(9);
+      assertArrayEquals(new byte[]{9}, reused.toByteArray());
+      reused.recycle();
+    }
+  }
+
+  @Test
+  public void pooledBuffersAllocateNothingAfterWarmUp() {
+    byte[] chunk = new byte[1024];
+    assumeTrue(allocatedBytes() >= 0);
+
+    for (int i = 0; i < JOBS; i++) {
+      encodeJob(chunk);
+    }
+
+    long before = allocatedBytes();
+    for (int i = 0; i < JOBS; i++) {
+      encodeJob(chunk);
+    }
+    long allocated = allocatedBytes() - before;
+
+    // without the pool each job grows a new array up to JOB_SIZE, over 100 times this
+    assertTrue("allocated " + allocated + " bytes for " + JOBS + " jobs", allocated < JOB_SIZE);
+  }
+}
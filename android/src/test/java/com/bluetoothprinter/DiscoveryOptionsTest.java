@@ -0,0 +1,47 @@
+package com.bluetoothprinter;
+
+import android.bluetooth.BluetoothClass;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DiscoveryOptionsTest {
+  private static final int IMAGING = BluetoothClass.Device.Major.IMAGING;
+  private static final int UNCATEGORIZED = BluetoothClass.Device.Major.UNCATEGORIZED;
+
+  @Test
+  public void keepsPrinters() {
+    assertTrue(DiscoveryOptions.isPrinter(IMAGING, IMAGING | 0x80));
+    // a printer that is also a scanner
+    assertTrue(DiscoveryOptions.isPrinter(IMAGING, IMAGING | 0x80 | 0x40));
+  }
+
+  @Test
+  public void keepsDevicesWithoutClass() {
+    assertTrue(DiscoveryOptions.isPrinter(null));
+    assertTrue(DiscoveryOptions.isPrinter(UNCATEGORIZED, UNCATEGORIZED));
+  }
+
+  @Test
+  public void skipsOtherDevices() {
+    // imaging scanner and camera
+    assertFalse(DiscoveryOptions.isPrinter(IMAGING, IMAGING | 0x40));
+    assertFalse(DiscoveryOptions.isPrinter(IMAGING, IMAGING | 0x20));
+    // a smartphone, and an audio device with the minor bit of imaging printers
+    assertFalse(DiscoveryOptions.isPrinter(0x0200, 0x020C));
+    assertFalse(DiscoveryOptions.isPrinter(0x0400, 0x0404 | 0x80));
+  }
+
+  @Test
+  public void matchesTheTarget() {
+    DiscoveryOptions options = new DiscoveryOptions(true, 0, "00:11:22:33:44:55", Pattern.compile("^MPT"));
+
+    assertTrue(options.isTarget("00:11:22:33:44:55", null));
+    assertTrue(options.isTarget("AA:BB:CC:DD:EE:FF", "MPT-II"));
+    assertFalse(options.isTarget("AA:BB:CC:DD:EE:FF", "Phone"));
+  }
+}
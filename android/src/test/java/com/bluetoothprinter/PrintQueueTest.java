@@ -0,0 +1,63 @@
+package com.bluetoothprinter;
+
+import org.junit.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PrintQueueTest {
+  private int nextId = 1;
+
+  private PrintJob job(PrintJob.Priority priority) {
+    return new PrintJob(nextId++, new byte[][]{new byte[1]}, priority, "");
+  }
+
+  @Test
+  public void dropsTheOldestJobOfTheLowestPriority() throws Exception {
+    PrintQueue queue = new PrintQueue(3, PrintQueue.Backpressure.DROP_OLDEST);
+    queue.put(job(PrintJob.Priority.HIGH));
+    PrintJob low = job(PrintJob.Priority.LOW);
+    queue.put(low);
+    queue.put(job(PrintJob.Priority.LOW));
+
+    assertSame(low, queue.put(job(PrintJob.Priority.NORMAL)));
+    assertEquals(3, queue.size());
+  }
+
+  @Test
+  public void dropsAJobOfTheSamePriority() throws Exception {
+    PrintQueue queue = new PrintQueue(2, PrintQueue.Backpressure.DROP_OLDEST);
+    PrintJob first = job(PrintJob.Priority.NORMAL);
+    queue.put(first);
+    queue.put(job(PrintJob.Priority.HIGH));
+
+    assertSame(first, queue.put(job(PrintJob.Priority.NORMAL)));
+  }
+
+  @Test
+  public void lowerPriorityJobNeverDropsAHigherOne() throws Exception {
+    PrintQueue queue = new PrintQueue(2, PrintQueue.Backpressure.DROP_OLDEST);
+    PrintJob high = job(PrintJob.Priority.HIGH);
+    queue.put(high);
+    queue.put(job(PrintJob.Priority.NORMAL));
+
+    try {
+      queue.put(job(PrintJob.Priority.LOW));
+      fail("expected the low priority job to be rejected");
+    } catch (RejectedExecutionException expected) {
+    }
+
+    assertEquals(2, queue.size());
+    assertSame(high, queue.take());
+  }
+
+  @Test
+  public void putBelowCapacityDropsNothing() throws Exception {
+    PrintQueue queue = new PrintQueue(2, PrintQueue.Backpressure.DROP_OLDEST);
+    assertNull(queue.put(job(PrintJob.Priority.LOW)));
+  }
+}
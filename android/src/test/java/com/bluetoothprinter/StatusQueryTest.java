@@ -0,0 +1,57 @@
+package com.bluetoothprinter;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StatusQueryTest {
+  private static final byte ONLINE = 0x12;
+  private static final byte PAPER_OUT = 0x72;
+
+  @Test
+  public void takesTheReplyOfTheRequestSent() throws Exception {
+    StatusQuery query = new StatusQuery();
+    query.arm();
+    query.sending();
+
+    assertEquals(1, query.onRead(new byte[]{'x', PAPER_OUT, ONLINE}, 0, 3));
+    assertEquals(PAPER_OUT, query.await(100));
+  }
+
+  @Test
+  public void ignoresRepliesReadBeforeTheRequestIsSent() throws Exception {
+    StatusQuery query = new StatusQuery();
+    query.arm();
+
+    assertEquals(-1, query.onRead(new byte[]{PAPER_OUT}, 0, 1));
+    query.sending();
+    assertEquals(0, query.onRead(new byte[]{ONLINE}, 0, 1));
+    assertEquals(ONLINE, query.await(100));
+  }
+
+  @Test
+  public void lateReplyIsNotTakenByTheNextRequest() throws Exception {
+    StatusQuery query = new StatusQuery();
+    query.arm();
+    query.sending();
+    try {
+      query.await(10);
+      fail("expected a timeout");
+    } catch (TimeoutException expected) {
+    }
+
+    // the next request leaves time for the late reply, which then goes unclaimed
+    long startedAt = System.currentTimeMillis();
+    query.arm();
+    assertTrue(System.currentTimeMillis() - startedAt >= StatusQuery.LATE_REPLY_GRACE / 2);
+    assertEquals(-1, query.onRead(new byte[]{PAPER_OUT}, 0, 1));
+
+    query.sending();
+    assertEquals(0, query.onRead(new byte[]{ONLINE}, 0, 1));
+    assertEquals(ONLINE, query.await(100));
+  }
+}
@@ -0,0 +1,53 @@
+package com.bluetoothprinter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Dithering speed of each algorithm at the widths of 58mm and 80mm printers.
+ * The pixels counter gives the pixels dithered per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Thread)
+public class DitherBenchmark {
+  @Param({"384", "576"})
+  public int width;
+
+  @Param({"THRESHOLD", "BAYER", "FLOYD_STEINBERG", "ATKINSON"})
+  public Dither.Algorithm algorithm;
+
+  private int[] source;
+  private int[] gray;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Pixels {
+    public long pixels;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      pixels = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    source = Images.gray(width, Images.HEIGHT);
+    gray = new int[source.length];
+  }
+
+  @Benchmark
+  public RasterImage dither(Pixels counter) {
+    // error diffusion changes the levels in place
+    System.arraycopy(source, 0, gray, 0, source.length);
+    counter.pixels += source.length;
+    return Dither.apply(gray, width, Images.HEIGHT, algorithm, ImageOptions.DEFAULT_THRESHOLD);
+  }
+}
@@ -0,0 +1,34 @@
+package com.bluetoothprinter;
+
+import java.util.Random;
+
+/**
+ * Test images shared by the benchmarks, the same on every run
+ */
+final class Images {
+  // a logo or a few lines of a receipt rendered as an image
+  static final int HEIGHT = 600;
+
+  private Images() {
+  }
+
+  /**
+   * Gray levels of a photo-like image: a gradient with noise, so every algorithm
+   * meets both flat areas and edges
+   */
+  static int[] gray(int width, int height) {
+    Random random = new Random(42);
+    int[] gray = new int[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int level = (x * 255 / width + y * 255 / height) / 2 + random.nextInt(64) - 32;
+        gray[y * width + x] = Math.max(0, Math.min(255, level));
+      }
+    }
+    return gray;
+  }
+
+  static RasterImage raster(int width, int height) {
+    return Dither.apply(gray(width, height), width, height, Dither.Algorithm.FLOYD_STEINBERG, ImageOptions.DEFAULT_THRESHOLD);
+  }
+}
@@ -0,0 +1,80 @@
+package com.bluetoothprinter;
+
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Cost on the native side of getting the bytes of a raw job from the bridge, up to the
+ * byte[] handed to the service, which then writes it the same way for both methods.
+ * printRaw gets a JSON array of numbers, parsed into an array and copied element by
+ * element; printBase64 gets a single string, decoded into the buffer. java.util.Base64
+ * stands for android.util.Base64, same encoding. The bytes counter gives the bytes
+ * ready to be written per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Thread)
+public class PrintRawBenchmark {
+  @Param({"1024", "16384", "131072", "1048576"})
+  public int size;
+
+  private String array;
+  private String base64;
+
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  @State(Scope.Thread)
+  public static class Bytes {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    byte[] data = new byte[size];
+    new Random(42).nextBytes(data);
+
+    StringBuilder json = new StringBuilder(size * 4).append('[');
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append(data[i] & 0xFF);
+    }
+    array = json.append(']').toString();
+    base64 = Base64.getEncoder().encodeToString(data);
+  }
+
+  @Benchmark
+  public byte[] printRaw(Bytes counter) {
+    JSONArray message = new JSONArray(array);
+    int size = message.length();
+    byte[] decoded = new byte[size];
+
+    for (int i = 0; i < size; i++) {
+      decoded[i] = (byte) message.getInt(i);
+    }
+    counter.bytes += size;
+    return decoded;
+  }
+
+  @Benchmark
+  public byte[] printBase64(Bytes counter) {
+    byte[] decoded = Base64.getDecoder().decode(base64);
+    counter.bytes += decoded.length;
+    return decoded;
+  }
+}
@@ -0,0 +1,36 @@
+package com.bluetoothprinter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Encoding a dithered image into GS v 0 bands and into a GS ( L stored graphics definition
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Thread)
+public class RasterEncoderBenchmark {
+  @Param({"384", "576"})
+  public int width;
+
+  private RasterImage image;
+
+  @Setup
+  public void setUp() {
+    image = Images.raster(width, Images.HEIGHT);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return RasterEncoder.encode(image, ImageOptions.DEFAULT_BAND_HEIGHT);
+  }
+
+  @Benchmark
+  public byte[] defineGraphics() {
+    return RasterEncoder.defineGraphics(StoredGraphicsCache.Memory.DOWNLOAD, "01", image);
+  }
+}
@@ -0,0 +1,71 @@
+package com.bluetoothprinter;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoding a typical receipt, from its JSON each time and from a compiled template,
+ * with the barcode and QR code sent as native commands or rendered as raster
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Thread)
+public class ReceiptEncoderBenchmark {
+  private static final int ITEMS = 20;
+
+  @Param({"true", "false"})
+  public boolean nativeSymbols;
+
+  private PrinterProfile profile;
+  private String document;
+  private ReceiptTemplate template;
+  private Map<String, String> values;
+
+  @Setup
+  public void setUp() throws JSONException {
+    profile = new PrinterProfile(nativeSymbols, nativeSymbols);
+    document = receipt("0042", "123,45");
+    template = ReceiptEncoder.compile(receipt("{{order}}", "{{total}}"));
+
+    values = new HashMap<String, String>();
+    values.put("order", "0042");
+    values.put("total", "123,45");
+  }
+
+  private static String receipt(String order, String total) {
+    StringBuilder json = new StringBuilder("[");
+    json.append("{\"type\": \"text\", \"text\": \"PADARIA CENTRAL\", \"align\": \"center\", \"bold\": true, \"size\": 2},");
+    json.append("{\"type\": \"text\", \"text\": \"Pedido ").append(order).append("\", \"align\": \"center\"},");
+    json.append("{\"type\": \"line\"},");
+    for (int i = 0; i < ITEMS; i++) {
+      json.append("{\"type\": \"columns\", \"columns\": [")
+        .append("{\"text\": \"Pão de queijo ").append(i).append("\"},")
+        .append("{\"text\": \"2 x 4,50\", \"width\": 10, \"align\": \"right\"},")
+        .append("{\"text\": \"9,00\", \"width\": 8, \"align\": \"right\"}]},");
+    }
+    json.append("{\"type\": \"line\", \"char\": \"=\"},");
+    json.append("{\"type\": \"text\", \"text\": \"TOTAL ").append(total).append("\", \"align\": \"right\", \"bold\": true},");
+    json.append("{\"type\": \"barcode\", \"format\": \"code128\", \"data\": \"").append(order).append("\"},");
+    json.append("{\"type\": \"qr\", \"data\": \"https://example.com/pedido/").append(order).append("\"},");
+    json.append("{\"type\": \"cut\"}");
+    return json.append("]").toString();
+  }
+
+  @Benchmark
+  public byte[] encode() throws JSONException {
+    return ReceiptEncoder.encode(document, profile);
+  }
+
+  @Benchmark
+  public byte[][] renderTemplate() {
+    return template.render(values, profile);
+  }
+}
@@ -1,10 +1,33 @@
 import { NativeModules, DeviceEventEmitter, Platform } from 'react-native';
 
 import type {
+  iConnectionStrategy,
   iDevice,
+  iDeviceAddress,
+  iKeepAliveOptions,
   iEnableBluetoothResponse,
+  iBatchOptions,
+  iBatchResult,
+  iImageOptions,
+  iJobOptions,
+  iLogoOptions,
+  iMetrics,
+  iPrintJob,
+  iPrinterProfile,
+  iJobProgressEvent,
+  iPrintJobEvent,
+  iPrinterStatus,
+  iReceipt,
+  iReceiptCommand,
+  iQueueOptions,
+  iReconnectingEvent,
   iRequestPermissionResponse,
   iScanDevicesResponse,
+  iScanOptions,
+  iSpooledJob,
+  iSpoolerOptions,
+  iWriteLogLevel,
+  iWriteOptions,
 } from './types';
 
 const LINKING_ERROR =
@@ -70,16 +93,104 @@ const isBluetoothEnabled = async (): Promise<boolean> => {
 
 /**
  * Verifica se o dispositivo está conectado
+ *
+ * Sem o endereço, verifica o último dispositivo conectado
  */
-const isDeviceConnected = async (): Promise<boolean> => {
-  return (await BluetoothPrinterModule.isDeviceConnected()) === true;
+const isDeviceConnected = async (address?: string): Promise<boolean> => {
+  return (
+    (await BluetoothPrinterModule.isDeviceConnected(address ?? null)) === true
+  );
+};
+
+/**
+ * Endereços dos dispositivos conectados ou conectando
+ */
+const getConnectedDevices = async (): Promise<string[]> => {
+  const devicesPromise = JSON.parse(
+    await BluetoothPrinterModule.getConnectedDevices()
+  );
+  return devicesPromise as string[];
+};
+
+/**
+ * Ativa a manutenção das conexões
+ *
+ * Conexões ociosas são testadas com uma consulta de estado e conexões perdidas
+ * são refeitas com espera exponencial. Os trabalhos enviados enquanto a conexão
+ * é refeita aguardam na fila
+ */
+const setKeepAlive = async (options: iKeepAliveOptions) => {
+  return (await BluetoothPrinterModule.setKeepAlive(options)) === true;
+};
+
+/**
+ * Ativa o spooler, que guarda os trabalhos em disco até serem impressos
+ *
+ * Trabalhos não impressos, por queda da conexão ou do app, são enviados de novo
+ * quando a impressora conectar
+ */
+const setSpooler = async (options: iSpoolerOptions) => {
+  return (await BluetoothPrinterModule.setSpooler(options)) === true;
+};
+
+/**
+ * Trabalhos guardados no spooler que ainda não foram impressos
+ */
+const getSpooledJobs = async (): Promise<iSpooledJob[]> => {
+  return JSON.parse(
+    await BluetoothPrinterModule.getSpooledJobs()
+  ) as iSpooledJob[];
+};
+
+/**
+ * Forma de conexão memorizada para cada dispositivo e os tempos de conexão
+ */
+const getConnectionStrategies = async (): Promise<iConnectionStrategy[]> => {
+  const strategiesPromise = JSON.parse(
+    await BluetoothPrinterModule.getConnectionStrategies()
+  );
+  return strategiesPromise as iConnectionStrategy[];
+};
+
+/**
+ * Histogramas dos tempos de conexão e da latência e vazão dos trabalhos
+ */
+const getMetrics = async (): Promise<iMetrics> => {
+  const metricsPromise = JSON.parse(await BluetoothPrinterModule.getMetrics());
+  return metricsPromise as iMetrics;
+};
+
+/**
+ * Zera as métricas coletadas
+ */
+const resetMetrics = async () => {
+  return (await BluetoothPrinterModule.resetMetrics()) === true;
+};
+
+/**
+ * Define quantos dispositivos podem ficar conectados ao mesmo tempo
+ *
+ * Ao conectar em um novo dispositivo sem espaço, o usado há mais tempo é desconectado
+ */
+const setMaxConnections = async (maxConnections: number) => {
+  return (
+    (await BluetoothPrinterModule.setMaxConnections(maxConnections)) === true
+  );
 };
 
 /**
  * Busca os dispositivos
+ *
+ * Pode buscar só impressoras, enviar os encontrados em lotes a cada
+ * batchInterval ms (onDevicesFound) e parar ao encontrar o endereço ou o nome
+ * procurado, que é retornado em target
  */
-const scanDevices = async (): Promise<iScanDevicesResponse> => {
-  const scanPromise = JSON.parse(await BluetoothPrinterModule.scanDevices());
+const scanDevices = async (
+  options: iScanOptions = {}
+): Promise<iScanDevicesResponse> => {
+  const scanPromise = JSON.parse(
+    await BluetoothPrinterModule.scanDevices(options)
+  );
   return scanPromise as iScanDevicesResponse;
 };
 
@@ -93,6 +204,19 @@ const connect = async (address: string) => {
   return connectPromise as iDevice;
 };
 
+/**
+ * Conecta a uma impressora de rede por TCP, normalmente na porta 9100
+ *
+ * O endereço da impressora é host:porta e pode ser usado nas demais funções
+ * como o endereço de um dispositivo bluetooth
+ */
+const connectNetwork = async (host: string, port = 9100) => {
+  const connectPromise = JSON.parse(
+    await BluetoothPrinterModule.connectNetwork(host, port)
+  );
+  return connectPromise as iDevice;
+};
+
 /**
  * Desconecta do dispositivo
  */
@@ -115,12 +239,374 @@ const unpair = async (address: string) => {
 
 /**
  * Envia os bytes para impressão
+ *
+ * Aceita um array de bytes ou uma string em base64, que atravessa a ponte
+ * como um único valor e é decodificada diretamente no lado nativo.
+ * Sem o endereço, imprime no último dispositivo conectado
  */
-const printRaw = async (bytes: any) => {
-  const connectPromise = await BluetoothPrinterModule.printRaw(bytes);
+const printRaw = async (
+  bytes: number[] | string,
+  address?: string,
+  options: iJobOptions = {}
+) => {
+  if (typeof bytes === 'string') {
+    return printBase64(bytes, address, options);
+  }
+  const connectPromise = await BluetoothPrinterModule.printRaw(
+    bytes,
+    address ?? null,
+    options
+  );
   return connectPromise as boolean;
 };
 
+/**
+ * Envia os bytes codificados em base64 para impressão
+ */
+const printBase64 = async (
+  base64: string,
+  address?: string,
+  options: iJobOptions = {}
+) => {
+  const printPromise = await BluetoothPrinterModule.printBase64(
+    base64,
+    address ?? null,
+    options
+  );
+  return printPromise as boolean;
+};
+
+/**
+ * Imprime vários trabalhos em base64 como um só
+ *
+ * Os trabalhos são unidos no lado nativo e escritos com o mínimo de escritas,
+ * em uma única chamada. O resultado informa quantos foram escritos, também
+ * quando a escrita falha
+ */
+const printBatch = async (
+  jobs: string[],
+  options: iBatchOptions = {},
+  address?: string
+): Promise<iBatchResult> => {
+  return JSON.parse(
+    await BluetoothPrinterModule.printBatch(jobs, options, address ?? null)
+  ) as iBatchResult;
+};
+
+/**
+ * Imprime uma imagem em base64 ou uri (content://, file://)
+ *
+ * A imagem é decodificada, redimensionada para a largura em pontos e convertida
+ * para raster no lado nativo
+ */
+const printImage = async (
+  source: string,
+  width: number,
+  options: iImageOptions = {},
+  address?: string
+) => {
+  const printPromise = await BluetoothPrinterModule.printImage(
+    source,
+    width,
+    options,
+    address ?? null
+  );
+  return printPromise as boolean;
+};
+
+/**
+ * Imprime uma imagem guardada na memória da impressora (NV ou download)
+ *
+ * Na primeira vez a imagem é enviada e guardada; nas seguintes, com a mesma
+ * imagem, largura e pontilhado, só o comando de impressão é enviado
+ */
+const printLogo = async (
+  source: string,
+  width: number,
+  options: iLogoOptions = {},
+  address?: string
+) => {
+  const printPromise = await BluetoothPrinterModule.printLogo(
+    source,
+    width,
+    options,
+    address ?? null
+  );
+  return printPromise as boolean;
+};
+
+/**
+ * Esquece as imagens guardadas na impressora, por exemplo após apagar a memória
+ */
+const clearStoredLogos = async (address: string) => {
+  return (await BluetoothPrinterModule.clearStoredLogos(address)) === true;
+};
+
+/**
+ * Define o que o firmware da impressora suporta
+ *
+ * Sem suporte nativo, QR codes e códigos de barras dos cupons são desenhados
+ * no lado nativo e enviados como imagem
+ */
+const setPrinterProfile = async (address: string, profile: iPrinterProfile) => {
+  return (
+    (await BluetoothPrinterModule.setPrinterProfile(address, profile)) === true
+  );
+};
+
+/**
+ * Imprime um cupom descrito em JSON
+ *
+ * Os comandos ESC/POS são gerados no lado nativo, em uma única chamada
+ */
+const printReceipt = async (
+  receipt: iReceipt | iReceiptCommand[],
+  address?: string,
+  options: iJobOptions = {}
+) => {
+  const printPromise = await BluetoothPrinterModule.printReceipt(
+    JSON.stringify(receipt),
+    address ?? null,
+    options
+  );
+  return printPromise as boolean;
+};
+
+/**
+ * Registra um modelo de cupom com campos {{nome}}
+ *
+ * Os comandos fixos são gerados uma única vez; a cada impressão só os valores
+ * dos campos são enviados
+ */
+const registerTemplate = async (
+  id: string,
+  receipt: iReceipt | iReceiptCommand[]
+) => {
+  return (
+    (await BluetoothPrinterModule.registerTemplate(
+      id,
+      JSON.stringify(receipt)
+    )) === true
+  );
+};
+
+const unregisterTemplate = async (id: string) => {
+  return (await BluetoothPrinterModule.unregisterTemplate(id)) === true;
+};
+
+/**
+ * Imprime um modelo registrado com os valores dos seus campos
+ */
+const printTemplate = async (
+  id: string,
+  values: { [field: string]: string | number },
+  address?: string
+) => {
+  const printPromise = await BluetoothPrinterModule.printTemplate(
+    id,
+    JSON.stringify(values),
+    address ?? null
+  );
+  return printPromise as boolean;
+};
+
+type iJobWaiter = {
+  resolve: (value: boolean) => void;
+  reject: (error: Error) => void;
+};
+
+const MAX_UNCLAIMED_JOB_RESULTS = 50;
+
+const jobWaiters = new Map<number, iJobWaiter>();
+const unclaimedJobResults = new Map<number, Error | null>();
+let jobListenersInstalled = false;
+
+const settleJob = (jobId: number, error: Error | null) => {
+  const waiter = jobWaiters.get(jobId);
+  if (waiter) {
+    jobWaiters.delete(jobId);
+    if (error) {
+      waiter.reject(error);
+    } else {
+      waiter.resolve(true);
+    }
+    return;
+  }
+
+  // o resultado chegou antes do id do trabalho, guarda até ser consultado
+  unclaimedJobResults.set(jobId, error);
+  if (unclaimedJobResults.size > MAX_UNCLAIMED_JOB_RESULTS) {
+    unclaimedJobResults.delete(unclaimedJobResults.keys().next().value);
+  }
+};
+
+const installJobListeners = () => {
+  if (jobListenersInstalled) {
+    return;
+  }
+  jobListenersInstalled = true;
+
+  DeviceEventEmitter.addListener(
+    'EVENT_JOB_COMPLETED',
+    (event: iPrintJobEvent) => settleJob(event.jobId, null)
+  );
+  DeviceEventEmitter.addListener(
+    'EVENT_JOB_FAILED',
+    (event: iPrintJobEvent) =>
+      settleJob(event.jobId, new Error(event.message ?? 'UNABLE_PRINT'))
+  );
+};
+
+const waitJob = (jobId: number) => {
+  return new Promise<boolean>((resolve, reject) => {
+    if (unclaimedJobResults.has(jobId)) {
+      const error = unclaimedJobResults.get(jobId);
+      unclaimedJobResults.delete(jobId);
+      if (error) {
+        reject(error);
+      } else {
+        resolve(true);
+      }
+      return;
+    }
+    jobWaiters.set(jobId, { resolve, reject });
+  });
+};
+
+/**
+ * Coloca os bytes na fila de impressão sem aguardar a escrita
+ *
+ * Retorna o id do trabalho e uma promise que finaliza quando ele for escrito
+ */
+const enqueueRaw = async (
+  bytes: number[] | string,
+  address?: string,
+  options: iJobOptions = {}
+): Promise<iPrintJob> => {
+  installJobListeners();
+
+  const jobId: number =
+    typeof bytes === 'string'
+      ? await BluetoothPrinterModule.enqueueBase64(
+          bytes,
+          address ?? null,
+          options
+        )
+      : await BluetoothPrinterModule.enqueueRaw(
+          bytes,
+          address ?? null,
+          options
+        );
+
+  return { jobId, completion: waitJob(jobId) };
+};
+
+/**
+ * Configura o tamanho da fila de impressão e o que fazer quando estiver cheia
+ *
+ * Com drop_oldest é descartado o trabalho mais antigo de prioridade igual ou menor
+ * que a do novo. Se só houver trabalhos de prioridade maior, o novo é recusado.
+ */
+const setQueueOptions = async (options: iQueueOptions) => {
+  return (await BluetoothPrinterModule.setQueueOptions(options)) === true;
+};
+
+/**
+ * Configura o envio dos trabalhos em blocos e o intervalo entre eles
+ */
+const setWriteOptions = async (options: iWriteOptions) => {
+  return (await BluetoothPrinterModule.setWriteOptions(options)) === true;
+};
+
+/**
+ * Define o que é registrado no log sobre os trabalhos escritos
+ *
+ * No nível 'hex_dump' são registrados os primeiros `hexDumpBytes` bytes de cada trabalho
+ */
+const setWriteLogLevel = async (level: iWriteLogLevel, hexDumpBytes = 64) => {
+  return (
+    (await BluetoothPrinterModule.setWriteLogLevel(level, hexDumpBytes)) ===
+    true
+  );
+};
+
+/**
+ * Consulta o estado da impressora (sem papel, tampa aberta, erros)
+ *
+ * `timeout` é o tempo máximo, em milissegundos, de espera por cada resposta
+ */
+const queryStatus = async (
+  timeout = 1000,
+  address?: string
+): Promise<iPrinterStatus> => {
+  const statusPromise = JSON.parse(
+    await BluetoothPrinterModule.queryStatus(address ?? null, timeout)
+  );
+  return statusPromise as iPrinterStatus;
+};
+
+/**
+ * Bytes recebidos da impressora desde a última leitura, em base64
+ */
+const readInbound = async (address?: string): Promise<string> => {
+  return await BluetoothPrinterModule.readInbound(address ?? null);
+};
+
+/**
+ * Cancela um trabalho na fila ou sendo escrito
+ *
+ * A escrita para no próximo bloco e a impressora é reiniciada com ESC @.
+ * Retorna false se o trabalho não estiver mais na fila ou se o último bloco
+ * já estiver sendo escrito, o trabalho então é concluído normalmente
+ */
+const cancelJob = async (jobId: number) => {
+  return (await BluetoothPrinterModule.cancelJob(jobId)) === true;
+};
+
+/**
+ * Intervalo mínimo em ms entre os eventos de progresso de um trabalho, 0 desativa
+ */
+const setProgressInterval = async (interval: number) => {
+  return (await BluetoothPrinterModule.setProgressInterval(interval)) === true;
+};
+
+/**
+ * Quantidade de trabalhos aguardando na fila de impressão
+ */
+const getQueueDepth = async (address?: string): Promise<number> => {
+  return await BluetoothPrinterModule.getQueueDepth(address ?? null);
+};
+
+/**
+ * Quando um trabalho da fila for escrito
+ */
+const onJobCompleted = (callback: (event: iPrintJobEvent) => void) => {
+  const listener = DeviceEventEmitter.addListener(
+    'EVENT_JOB_COMPLETED',
+    callback
+  );
+  return listener;
+};
+
+/**
+ * Quando um trabalho da fila falhar ou for descartado
+ */
+const onJobFailed = (callback: (event: iPrintJobEvent) => void) => {
+  const listener = DeviceEventEmitter.addListener('EVENT_JOB_FAILED', callback);
+  return listener;
+};
+
+/**
+ * Progresso da escrita de um trabalho, no intervalo de setProgressInterval
+ */
+const onJobProgress = (callback: (event: iJobProgressEvent) => void) => {
+  const listener = DeviceEventEmitter.addListener(
+    'EVENT_JOB_PROGRESS',
+    callback
+  );
+  return listener;
+};
+
 /**
  * Quando localizar um novo dispositivo bluetooth
  */
@@ -132,6 +618,17 @@ const onDeviceFound = (callback: (device: iDevice) => void) => {
   return listener;
 };
 
+/**
+ * Quando localizar novos dispositivos, em lotes, ao buscar com batchInterval
+ */
+const onDevicesFound = (callback: (devices: iDevice[]) => void) => {
+  const listener = DeviceEventEmitter.addListener(
+    'EVENT_DEVICES_FOUND',
+    callback
+  );
+  return listener;
+};
+
 /**
  * Quando enviar os dispositivos já pareados
  */
@@ -176,7 +673,7 @@ const onDeviceConnect = (callback: (device: iDevice) => void) => {
 /**
  * Quando desconectar o dispositivo
  */
-const onDeviceDisconnect = (callback: () => void) => {
+const onDeviceDisconnect = (callback: (device: iDeviceAddress) => void) => {
   const listener = DeviceEventEmitter.addListener(
     'EVENT_CONNECTION_LOST',
     callback
@@ -184,10 +681,21 @@ const onDeviceDisconnect = (callback: () => void) => {
   return listener;
 };
 
+/**
+ * Quando uma conexão perdida estiver sendo refeita
+ */
+const onReconnecting = (callback: (event: iReconnectingEvent) => void) => {
+  const listener = DeviceEventEmitter.addListener(
+    'EVENT_RECONNECTING',
+    callback
+  );
+  return listener;
+};
+
 /**
  * Quando receber mensagem que não foi possível se conectar
  */
-const onUnableToConnect = (callback: () => void) => {
+const onUnableToConnect = (callback: (device: iDeviceAddress) => void) => {
   const listener = DeviceEventEmitter.addListener(
     'EVENT_UNABLE_CONNECT',
     callback
@@ -202,19 +710,52 @@ const BluetoothPrinter = {
   disableBluetooth,
   isBluetoothEnabled,
   isDeviceConnected,
+  getConnectedDevices,
+  setMaxConnections,
+  setKeepAlive,
+  getConnectionStrategies,
+  setSpooler,
+  getSpooledJobs,
+  getMetrics,
+  resetMetrics,
   scanDevices,
   connect,
+  connectNetwork,
   disconnect,
   printRaw,
+  printBase64,
+  printBatch,
+  printImage,
+  printLogo,
+  clearStoredLogos,
+  setPrinterProfile,
+  printReceipt,
+  registerTemplate,
+  unregisterTemplate,
+  printTemplate,
+  enqueueRaw,
+  setQueueOptions,
+  setWriteOptions,
+  setWriteLogLevel,
+  getQueueDepth,
+  cancelJob,
+  setProgressInterval,
+  readInbound,
+  queryStatus,
   unpair,
 
   onBluetoothNotSupported,
   onDeviceAlreadyPaired,
   onDeviceDisconnect,
   onUnableToConnect,
+  onReconnecting,
   onDeviceConnect,
   onDeviceFound,
+  onDevicesFound,
   onScanDone,
+  onJobCompleted,
+  onJobFailed,
+  onJobProgress,
 };
 
 export * from './types';
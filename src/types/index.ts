@@ -1,6 +1,22 @@
 export type iDevice = {
   name: string;
   address: string;
+  rssi?: number;
+  deviceClass?: number;
+};
+
+export type iDeviceAddress = {
+  address: string;
+};
+
+export type iConnectionStrategy = {
+  address: string;
+  /** canal RFCOMM de 1 a 3, ou 0 para o registro de serviço (UUID SPP) */
+  strategy: number;
+  failures: number;
+  lastConnectTime: number;
+  averageCachedConnectTime: number;
+  averageColdConnectTime: number;
 };
 
 export type iRequestPermissionResponse = {
@@ -17,4 +33,274 @@ export type iEnableBluetoothResponse = {
 export type iScanDevicesResponse = {
   paired: iDevice[];
   found: iDevice[];
+  target?: iDevice;
+};
+
+export type iScanOptions = {
+  printersOnly?: boolean;
+  batchInterval?: number;
+  targetAddress?: string;
+  targetName?: string;
+};
+
+export type iQueueBackpressure = 'block' | 'reject' | 'drop_oldest';
+
+export type iQueueOptions = {
+  capacity?: number;
+  backpressure?: iQueueBackpressure;
+};
+
+export type iPrintJobEvent = {
+  jobId: number;
+  address: string;
+  queueDepth: number;
+  message?: string;
+  /** a falha manteve o trabalho no spooler, que o imprime na próxima conexão */
+  spooled?: boolean;
+};
+
+export type iJobPriority = 'high' | 'normal' | 'low';
+
+export type iJobOptions = {
+  /** trabalhos de prioridade maior passam na frente, sem interromper o atual */
+  priority?: iJobPriority;
+  /** origem do trabalho, a fila alterna entre origens de mesma prioridade */
+  source?: string;
+};
+
+export type iBatchOptions = iJobOptions & {
+  /** bytes em base64 enviados entre um trabalho e o próximo */
+  separator?: string;
+  /** corte do papel após cada trabalho, padrão none */
+  cut?: 'none' | 'full' | 'partial';
+  /** linhas avançadas antes do corte, padrão 3 */
+  feed?: number;
+};
+
+export type iBatchResult = {
+  count: number;
+  /** trabalhos escritos por completo, na ordem do lote */
+  written: number;
+  bytesWritten: number;
+  /** posição do fim de cada trabalho nos bytes enviados */
+  offsets: number[];
+  spooled: boolean;
+  error?: string;
+};
+
+export type iJobProgressEvent = {
+  jobId: number;
+  address: string;
+  bytesSent: number;
+  totalBytes: number;
+  /** tempo restante estimado em ms, pela vazão medida do trabalho */
+  eta: number;
+};
+
+export type iPrintJob = {
+  jobId: number;
+  completion: Promise<boolean>;
+};
+
+export type iWritePacing =
+  | 'none'
+  | 'fixed_delay'
+  | 'bytes_per_second'
+  | 'xon_xoff';
+
+export type iWriteOptions = {
+  chunkSize?: number;
+  pacing?: iWritePacing;
+  chunkDelay?: number;
+  bytesPerSecond?: number;
+  xoffTimeout?: number;
+};
+
+export type iWriteLogLevel = 'off' | 'summary' | 'hex_dump';
+
+export type iPrinterStatus = {
+  online: boolean;
+  paperOut: boolean;
+  paperNearEnd: boolean;
+  coverOpen: boolean;
+  drawerOpen: boolean;
+  paperFeedPressed: boolean;
+  error: boolean;
+  cutterError: boolean;
+  unrecoverableError: boolean;
+  autoRecoverableError: boolean;
+};
+
+export type iKeepAliveOptions = {
+  enabled: boolean;
+  probeInterval?: number;
+  probeTimeout?: number;
+  initialBackoff?: number;
+  maxBackoff?: number;
+  maxAttempts?: number;
+};
+
+export type iSpoolerOptions = {
+  enabled: boolean;
+  /**
+   * tempo de espera da consulta de estado após cada trabalho, que só é dado
+   * como impresso se a impressora responder sem erro; 0 para não consultar
+   */
+  statusTimeout?: number;
+};
+
+export type iSpooledJob = {
+  jobId: number;
+  address: string;
+  size: number;
+  createdAt: number;
+};
+
+export type iReconnectingEvent = {
+  address: string;
+  attempt: number;
+};
+
+export type iHistogramBucket = {
+  /** limite superior do intervalo, null para o último */
+  le: number | null;
+  count: number;
+};
+
+export type iHistogram = {
+  count: number;
+  sum: number;
+  min: number;
+  max: number;
+  mean: number;
+  buckets: iHistogramBucket[];
+};
+
+export type iMetrics = {
+  bytesWritten: number;
+  jobsWritten: number;
+  jobsFailed: number;
+  /** bytes por segundo */
+  averageThroughput: number;
+  /**
+   * Tempos em milissegundos das fases da conexão (cancelDiscovery,
+   * createSocket, socketConnect, streamSetup, connectTotal) e dos trabalhos
+   * (jobQueueWait, jobWrite). jobThroughput em bytes por segundo
+   */
+  histograms: { [name: string]: iHistogram };
+};
+
+export type iImageDithering =
+  | 'threshold'
+  | 'bayer'
+  | 'floyd_steinberg'
+  | 'atkinson';
+
+export type iImageOptions = {
+  dithering?: iImageDithering;
+  /** nível de cinza, de 0 a 255, abaixo do qual o ponto é impresso */
+  threshold?: number;
+  /** linhas por comando de raster */
+  bandHeight?: number;
+};
+
+export type iLogoMemory = 'nv' | 'download';
+
+export type iLogoOptions = {
+  dithering?: iImageDithering;
+  threshold?: number;
+  /**
+   * nv sobrevive ao desligamento da impressora, mas tem um número limitado de
+   * gravações; download fica na RAM e é enviado de novo a cada conexão
+   */
+  memory?: iLogoMemory;
+};
+
+export type iPrinterProfile = {
+  /** a impressora gera QR codes (GS ( k), padrão true */
+  nativeQr?: boolean;
+  /** a impressora gera códigos de barras (GS k), padrão true */
+  nativeBarcode?: boolean;
+};
+
+export type iReceiptAlign = 'left' | 'center' | 'right';
+
+export type iReceiptCodepage =
+  | 'cp437'
+  | 'cp850'
+  | 'cp860'
+  | 'cp863'
+  | 'cp865'
+  | 'cp1252'
+  | 'cp866'
+  | 'cp858';
+
+export type iReceiptStyle = {
+  bold?: boolean;
+  underline?: boolean;
+  /** multiplicador de largura e altura, de 1 a 8 */
+  size?: number;
+  widthScale?: number;
+  heightScale?: number;
+};
+
+export type iReceiptColumn = {
+  text: string;
+  /** largura em caracteres, sem largura as colunas dividem o restante */
+  width?: number;
+  align?: iReceiptAlign;
+};
+
+export type iBarcodeFormat =
+  | 'upc_a'
+  | 'upc_e'
+  | 'ean13'
+  | 'ean8'
+  | 'code39'
+  | 'itf'
+  | 'codabar'
+  | 'code93'
+  | 'code128';
+
+export type iReceiptCommand =
+  | ({
+      type: 'text';
+      text: string;
+      align?: iReceiptAlign;
+      codepage?: iReceiptCodepage;
+      /** quebra a linha após o texto, padrão true */
+      newline?: boolean;
+    } & iReceiptStyle)
+  | ({ type: 'line'; char?: string } & iReceiptStyle)
+  | ({ type: 'columns'; columns: iReceiptColumn[] } & iReceiptStyle)
+  | { type: 'feed'; lines?: number }
+  | { type: 'cut'; partial?: boolean; feed?: number }
+  | {
+      type: 'barcode';
+      data: string;
+      format?: iBarcodeFormat;
+      height?: number;
+      width?: number;
+      hri?: 'none' | 'above' | 'below' | 'both';
+      align?: iReceiptAlign;
+    }
+  | {
+      type: 'qr';
+      data: string;
+      /** tamanho do módulo, de 1 a 16 */
+      size?: number;
+      errorCorrection?: 'L' | 'M' | 'Q' | 'H';
+      align?: iReceiptAlign;
+    }
+  | { type: 'raw'; base64: string };
+
+export type iReceipt = {
+  /** caracteres por linha, padrão 48 */
+  width?: number;
+  codepage?: iReceiptCodepage;
+  /** codepages usadas, em ordem, para caracteres que não existem na atual */
+  codepages?: iReceiptCodepage[];
+  /** envia ESC @ antes do cupom, padrão true */
+  initialize?: boolean;
+  commands: iReceiptCommand[];
 };